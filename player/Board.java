@@ -24,23 +24,384 @@ public class Board {
       DIRECTION_RIGHT, DIRECTION_DOWN_RIGHT, DIRECTION_DOWN,
       DIRECTION_DOWN_LEFT, DIRECTION_LEFT, DIRECTION_UP_LEFT };
 
-  protected static final int MY_WIN = Integer.MAX_VALUE;
-  protected static final int OPP_WIN = Integer.MIN_VALUE;
+  // Scores of a won and a lost position. Every other score lies well between them, and the
+  // range is far from int overflow, so that search windows can be opened around any score.
+  protected static final int MY_WIN = 100000;
+  protected static final int OPP_WIN = -MY_WIN;
 
   //Board Limits
   protected static final int MAX_PIECES = 10;
   protected static final int LENGTH = 8;
   protected static final int END_INDEX = LENGTH-1;
+  protected static final int SQUARES = LENGTH * LENGTH;
+  // more than the number of moves a player can ever have
+  protected static final int MAX_MOVES = MAX_PIECES * SQUARES;
+
+  // Bitboard masks. The square (x, y) is bit number x + y * LENGTH.
+  private static final long COLUMN_LEFT = 0x0101010101010101L;
+  private static final long COLUMN_RIGHT = COLUMN_LEFT << END_INDEX;
+  private static final long ROW_TOP = 0xFFL;
+  private static final long ROW_BOTTOM = ROW_TOP << (END_INDEX * LENGTH);
+  protected static final long CORNERS = (COLUMN_LEFT | COLUMN_RIGHT) & (ROW_TOP | ROW_BOTTOM);
+  // goal squares of each player, indexed by color
+  protected static final long[] GOALS = { (ROW_TOP | ROW_BOTTOM) & ~CORNERS,
+                                          (COLUMN_LEFT | COLUMN_RIGHT) & ~CORNERS };
+  // the goal each player's networks are searched from; the other goal is where they must end
+  private static final long[] START_GOALS = { ROW_TOP & ~CORNERS, COLUMN_LEFT & ~CORNERS };
+  // the fewest pieces a network can have
+  private static final int MIN_NETWORK = 6;
+
+  // RAYS[direction][square] holds every square seen from "square" looking in "direction"
+  private static final long[][] RAYS = new long[DIRECTIONS.length][SQUARES];
+  // -1 for directions that walk toward higher square numbers, 0 for those walking toward lower
+  private static final long[] RAY_ASCENDING = new long[DIRECTIONS.length];
+  // NEIGHBORS[square] holds the (up to eight) squares adjacent to "square"
+  private static final long[] NEIGHBORS = new long[SQUARES];
+
+  static {
+    for (int square = 0; square < SQUARES; square++) {
+      NEIGHBORS[square] = neighbors(1L << square);
+    }
+    for (int direction : DIRECTIONS) {
+      for (int square = 0; square < SQUARES; square++) {
+        long ray = 0;
+        for (long next = shift(1L << square, direction); next != 0; next = shift(next, direction)) {
+          ray |= next;
+        }
+        RAYS[direction][square] = ray;
+      }
+      long center = bit(LENGTH / 2, LENGTH / 2);
+      RAY_ASCENDING[direction] = Long.compareUnsigned(shift(center, direction), center) > 0 ? -1L : 0L;
+    }
+  }
+
+  // Zobrist keys: one per (color, square), one per (color, pieces added) and one for black to move.
+  // They come from a fixed seed so that hash keys are the same in every run.
+  private static final long[][] PIECE_KEYS = new long[2][SQUARES];
+  private static final long[][] PHASE_KEYS = new long[2][MAX_PIECES + 1];
+  private static final long BLACK_TO_MOVE_KEY;
+
+  static {
+    long seed = 0x61B2013L;
+    for (int color = BLACK; color <= WHITE; color++) {
+      for (int square = 0; square < SQUARES; square++) {
+        seed += 0x9E3779B97F4A7C15L;
+        PIECE_KEYS[color][square] = mix(seed);
+      }
+      for (int added = 0; added <= MAX_PIECES; added++) {
+        seed += 0x9E3779B97F4A7C15L;
+        PHASE_KEYS[color][added] = mix(seed);
+      }
+    }
+    seed += 0x9E3779B97F4A7C15L;
+    BLACK_TO_MOVE_KEY = mix(seed);
+  }
 
   private Piece[][] board;
-  private DList[] colorPieces; // keeps track of Each player's pieces
+  // Each player's pieces, oldest first. The first pieceCount[color] entries are on the board;
+  // the entries after them are pieces that were taken back, kept to be reused by the next ADD.
+  private Piece[][] pieces;
+  private int[] pieceCount;
+  private long[] occupancy;    // one bitboard of occupied squares per color
+  // For each occupied square, the nearest occupied square it sees in each direction, or -1:
+  // entry square * DIRECTIONS.length + direction. Entries of empty squares are meaningless.
+  private int[] sight;
+  // per color, the sum over its pieces of numPairsPieceCanForm, kept up to date with sight
+  private int[] pairs;
+  private int sideToMove;
+  private long hash;
+  // the path of hasNetwork's search: its squares, the direction each was reached in,
+  // and the next direction to look in from each
+  private int[] pathSquare;
+  private int[] pathDirection;
+  private int[] pathNext;
+  private SearchStats stats;   // counts network checks; null when not counting
+  private EvalCache evalCache; // null when evaluating without one
 
   /**
     * Default constructor, initialized empty board.
+    * White has the first move.
     */
   public Board() {
-    colorPieces = new DList[] {new DList(), new DList()};
+    pieces = new Piece[2][MAX_PIECES];
+    pieceCount = new int[2];
     board = new Piece[LENGTH][LENGTH];
+    occupancy = new long[2];
+    sight = new int[SQUARES * DIRECTIONS.length];
+    pairs = new int[2];
+    pathSquare = new int[MAX_PIECES];
+    pathDirection = new int[MAX_PIECES];
+    pathNext = new int[MAX_PIECES];
+    sideToMove = WHITE;
+    hash = PHASE_KEYS[BLACK][0] ^ PHASE_KEYS[WHITE][0];
+  }
+
+  /**
+    * Returns a copy of this board that shares no state with it, so that it can be searched
+    * by another thread. Pieces are copied in the same order, so both boards list moves alike.
+    */
+  protected Board copy() {
+    Board copy = new Board();
+    copy.copyFrom(this);
+    return copy;
+  }
+
+  /**
+    * Makes this board a copy of "other", reusing its own arrays and pieces, so that a search
+    * can take up another position without allocating. Pieces are copied in the same order.
+    */
+  protected void copyFrom(Board other) {
+    // empty the squares of both players first: a piece copied onto a square of this board's
+    // other player must not be erased with that player's old pieces
+    for (int color = BLACK; color <= WHITE; color++) {
+      for (int i = 0; i < pieceCount[color]; i++) {
+        Piece piece = pieces[color][i];
+        board[piece.x][piece.y] = null;
+      }
+    }
+    for (int color = BLACK; color <= WHITE; color++) {
+      for (int i = 0; i < other.pieceCount[color]; i++) {
+        Piece piece = other.pieces[color][i];
+        Piece pieceCopy = pieces[color][i];
+        if (pieceCopy == null) {
+          pieceCopy = new Piece(piece.color, piece.x, piece.y);
+          pieces[color][i] = pieceCopy;
+        } else {
+          pieceCopy.x = piece.x;
+          pieceCopy.y = piece.y;
+        }
+        board[piece.x][piece.y] = pieceCopy;
+      }
+      pieceCount[color] = other.pieceCount[color];
+    }
+    occupancy[BLACK] = other.occupancy[BLACK];
+    occupancy[WHITE] = other.occupancy[WHITE];
+    System.arraycopy(other.sight, 0, sight, 0, sight.length);
+    pairs[BLACK] = other.pairs[BLACK];
+    pairs[WHITE] = other.pairs[WHITE];
+    sideToMove = other.sideToMove;
+    hash = other.hash;
+  }
+
+  // HASHING
+
+  /**
+    * Scrambles "seed" into a well-distributed 64-bit value (the SplitMix64 finalizer)
+    */
+  private static long mix(long seed) {
+    seed = (seed ^ (seed >>> 30)) * 0xBF58476D1CE4E5B9L;
+    seed = (seed ^ (seed >>> 27)) * 0x94D049BB133111EBL;
+    return seed ^ (seed >>> 31);
+  }
+
+  /**
+    * Returns the 64-bit Zobrist key of this position: the pieces of both players,
+    * how many pieces each player has added, and the player to move.
+    * The key is maintained incrementally, so this is O(1).
+    */
+  protected long hashKey() {
+    return hash;
+  }
+
+  /**
+    * Returns the key of the current position for the evaluation cache: like hashKey,
+    * but the same whoever is to move, since evaluate does not depend on it.
+    */
+  protected long evalKey() {
+    return sideToMove == BLACK ? hash ^ BLACK_TO_MOVE_KEY : hash;
+  }
+
+  /**
+    * Returns the color of the player to move: the opponent of whoever moved last.
+    */
+  protected int sideToMove() {
+    return sideToMove;
+  }
+
+  /**
+    * Records that the player represented by int "color" is now to move, updating the hash key
+    */
+  protected void setSideToMove(int color) {
+    if (color != sideToMove) {
+      hash ^= BLACK_TO_MOVE_KEY;
+      sideToMove = color;
+    }
+  }
+
+  // BITBOARDS
+
+  /**
+    * Returns the square number (bit index) of the x,y coordinates
+    */
+  protected static int square(int x, int y) {
+    return x + y * LENGTH;
+  }
+
+  /**
+    * Returns the bit representing the square at x,y coordinates
+    */
+  protected static long bit(int x, int y) {
+    return 1L << square(x, y);
+  }
+
+  /**
+    * Returns the bitboard of squares occupied by the player represented by int "color"
+    */
+  protected long occupancy(int color) {
+    return occupancy[color];
+  }
+
+  /**
+    * Returns the bitboard of all occupied squares
+    */
+  protected long occupied() {
+    return occupancy[BLACK] | occupancy[WHITE];
+  }
+
+  /**
+    * Shifts every square of bitboard "squares" one step in "direction".
+    * Squares that would leave the board are dropped instead of wrapping around.
+    */
+  private static long shift(long squares, int direction) {
+    switch (direction) {
+    case DIRECTION_UP:
+      return squares >>> LENGTH;
+    case DIRECTION_UP_RIGHT:
+      return (squares >>> (LENGTH - 1)) & ~COLUMN_LEFT;
+    case DIRECTION_RIGHT:
+      return (squares << 1) & ~COLUMN_LEFT;
+    case DIRECTION_DOWN_RIGHT:
+      return (squares << (LENGTH + 1)) & ~COLUMN_LEFT;
+    case DIRECTION_DOWN:
+      return squares << LENGTH;
+    case DIRECTION_DOWN_LEFT:
+      return (squares << (LENGTH - 1)) & ~COLUMN_RIGHT;
+    case DIRECTION_LEFT:
+      return (squares >>> 1) & ~COLUMN_RIGHT;
+    case DIRECTION_UP_LEFT:
+      return (squares >>> (LENGTH + 1)) & ~COLUMN_RIGHT;
+    default:
+      return 0;
+    }
+  }
+
+  /**
+    * Returns the bitboard of every square adjacent (including diagonally) to a square in "squares".
+    * The squares themselves are only included if they are adjacent to one another.
+    */
+  protected static long neighbors(long squares) {
+    long result = 0;
+    for (int direction : DIRECTIONS) {
+      result |= shift(squares, direction);
+    }
+    return result;
+  }
+
+  /**
+    * Returns the first square in "occupied" seen from "square" looking in "direction",
+    * or -1 if the ray leaves the board without meeting one.
+    * Uses the precomputed RAYS, so it neither loops nor branches on the direction.
+    */
+  protected static int firstBlocker(int square, int direction, long occupied) {
+    long blockers = RAYS[direction][square] & occupied;
+    if (blockers == 0) {
+      return -1;
+    }
+    long ascending = RAY_ASCENDING[direction];
+    long nearest = ((blockers & -blockers) & ascending) | (Long.highestOneBit(blockers) & ~ascending);
+    return Long.numberOfTrailingZeros(nearest);
+  }
+
+  /**
+    * Returns the Piece standing on square number "square"
+    */
+  private Piece pieceAt(int square) {
+    return board[square % LENGTH][square / LENGTH];
+  }
+
+  /**
+    * Sets or clears the occupancy bit of a piece, keeping the bitboards in sync with the grid
+    */
+  private void toggleOccupancy(Piece piece) {
+    int square = square(piece.x, piece.y);
+    occupancy[piece.color] ^= bit(piece.x, piece.y);
+    hash ^= PIECE_KEYS[piece.color][square];
+    if ((occupancy[piece.color] & bit(piece.x, piece.y)) != 0) {
+      linkSight(square, piece.color);
+    } else {
+      unlinkSight(square, piece.color);
+    }
+  }
+
+  /**
+    * Returns the direction opposite to "direction".
+    */
+  private static int opposite(int direction) {
+    return (direction + DIRECTIONS.length / 2) % DIRECTIONS.length;
+  }
+
+  /**
+    * Returns the nearest occupied square seen from the occupied square "square" looking in
+    * "direction", or -1 if there is none. Reads the sight graph, so it takes constant time.
+    */
+  protected int nextInSight(int square, int direction) {
+    return sight[square * DIRECTIONS.length + direction];
+  }
+
+  /**
+    * Returns the color of the piece on the occupied square "square".
+    */
+  private int colorAt(int square) {
+    return (int) (occupancy[WHITE] >>> square) & 1;
+  }
+
+  /**
+    * Adds the square "square", newly occupied by a piece of color "color", to the sight graph:
+    * it sees the nearest pieces around it, and each of them now sees it instead of the piece
+    * behind it. A neighbor that saw nothing behind it gains a pair.
+    */
+  private void linkSight(int square, int color) {
+    long occupied = occupied();
+    for (int direction : DIRECTIONS) {
+      sight[square * DIRECTIONS.length + direction] = firstBlocker(square, direction, occupied);
+    }
+    for (int direction : DIRECTIONS) {
+      int next = sight[square * DIRECTIONS.length + direction];
+      if (next >= 0) {
+        pairs[color]++;
+        if (sight[square * DIRECTIONS.length + opposite(direction)] < 0) {
+          pairs[colorAt(next)]++;
+        }
+        sight[next * DIRECTIONS.length + opposite(direction)] = square;
+      }
+    }
+  }
+
+  /**
+    * Takes the square "square", newly emptied of a piece of color "color", out of the sight
+    * graph: the pieces on either side of it along each line now see one another. A piece with
+    * nothing on the other side loses a pair.
+    */
+  private void unlinkSight(int square, int color) {
+    for (int direction = 0; direction < DIRECTIONS.length / 2; direction++) {
+      int back = opposite(direction);
+      int ahead = sight[square * DIRECTIONS.length + direction];
+      int behind = sight[square * DIRECTIONS.length + back];
+      if (ahead >= 0) {
+        sight[ahead * DIRECTIONS.length + back] = behind;
+        pairs[color]--;
+        if (behind < 0) {
+          pairs[colorAt(ahead)]--;
+        }
+      }
+      if (behind >= 0) {
+        sight[behind * DIRECTIONS.length + direction] = ahead;
+        pairs[color]--;
+        if (ahead < 0) {
+          pairs[colorAt(behind)]--;
+        }
+      }
+    }
   }
 
   // CHECKING VALID MOVE
@@ -51,14 +412,7 @@ public class Board {
     * @return boolean
     */
   private boolean isOnValidGoal(int x, int y, int color) {
-    if (isInCorner(x, y)) {
-      return false;
-    }
-    if (color == WHITE) {
-      return x == 0 || x == END_INDEX;
-    } else {
-      return y == 0 || y == END_INDEX;
-    }
+    return (GOALS[color] & bit(x, y)) != 0;
   }
 
   /**
@@ -74,34 +428,25 @@ public class Board {
     * Checks if x,y coordinates are on a corner space, returns boolean
     */
   private boolean isInCorner(int x, int y) {
-    if (x == 0 || y == 0 || x == END_INDEX || y == END_INDEX) {
-      int difference = Math.abs(x - y);
-      return (difference == 0 || difference == END_INDEX);
-    }
-    return false;
+    return (CORNERS & bit(x, y)) != 0;
   }
 
   /**
-    * Helper method for isInCluster. Takes in x, y coordinates and the player's color
-    * Checks whether the player has pieces surrounding those x,y coordinates.
-    * Returns true or false.
+    * Checks if an illegal cluster would be formed if a piece was placed on square "square"
+    * next to the pieces in bitboard "own".
+    * A cluster forms if the square touches two of "own", or touches one that already has a neighbor.
+    * Two lookups in NEIGHBORS, so edge squares need no special case.
+    * Note that "square" should not be part of "own"
     */
-  private boolean isInChainedCluster(int x, int y, int color) {
-    for (int i = -1; i < 2; i++) {
-      for (int j = -1; j < 2; j++) {
-        try {
-          Piece piece = board[x + i][y + j];
-          if (piece == null || (i == 0 && j == 0)) {
-            continue;
-          }
-          if (piece.color == color) {
-            return true;
-          }
-        } catch (Exception e) {
-        }
-      }
+  private static boolean formsCluster(int square, long own) {
+    long adjacent = NEIGHBORS[square] & own;
+    if (adjacent == 0) {
+      return false;
     }
-    return false;
+    if ((adjacent & (adjacent - 1)) != 0) {
+      return true;
+    }
+    return (NEIGHBORS[Long.numberOfTrailingZeros(adjacent)] & own) != 0;
   }
 
   /**
@@ -111,26 +456,7 @@ public class Board {
     * Returns boolean
     */
   private boolean isInCluster(int x, int y, int color) {
-    //count how many pieces in vicinity
-    int counter = 0;
-    for (int i = -1; i < 2; i++) {
-      for (int j = -1; j < 2; j++) {
-        try {
-          Piece piece = board[x + i][y + j];
-          if (piece == null || (i == 0 && j == 0)) {
-            continue;
-          }
-          if (piece.color == color) {
-            counter += 1;
-            if (isInChainedCluster(x + i, y + j, color)) {
-              return true;
-            }
-          }
-        } catch (Exception e) {
-        }
-      }
-    }
-    return counter >= 2;
+    return formsCluster(square(x, y), occupancy[color]);
   }
 
   /**
@@ -141,32 +467,16 @@ public class Board {
     * Returns a boolean
     */
   protected boolean isValidAddMove(Move move, int color) {
-    int x = move.x1;
-    int y = move.y1;
-    if (isInCorner(x, y)) {
-      return false;
-    }
-    // piece already there:
-    if (board[x][y] != null) {
-      return false;
-    }
-    if (isOnInvalidGoal(x, y, color)) {
+    long square = bit(move.x1, move.y1);
+    if ((square & (CORNERS | GOALS[flipColor(color)] | occupied())) != 0) {
       return false;
     }
-
-    // just for cluster detection, flip color if step move
-    // this is a trick for accounting for the fact that cluster detection for step moves
-    // should ignore the original (source) piece
-    Piece stepPiece = null;
-    if (move.moveKind == move.STEP) {
-      stepPiece = board[move.x2][move.y2];
-      stepPiece.color = flipColor(stepPiece.color);
-    }
-    boolean clustered = isInCluster(move.x1, move.y1, color);
-    if (stepPiece != null) {
-      stepPiece.color = flipColor(stepPiece.color);
+    // cluster detection for step moves should ignore the original (source) piece
+    long own = occupancy[color];
+    if (move.moveKind == Move.STEP) {
+      own &= ~bit(move.x2, move.y2);
     }
-    return !clustered;
+    return !formsCluster(square(move.x1, move.y1), own);
   }
 
   /**
@@ -183,6 +493,71 @@ public class Board {
   }
 
 
+  /**
+    * Writes every valid move of the player represented by int "color" into "moves", packed as
+    * by PackedMove, and returns how many there are. Allocates nothing.
+    * Entirely consists of either all add moves or all step moves, in the same order as
+    * MachinePlayer.validMoves lists them.
+    * "moves" must have room for MAX_MOVES moves.
+    */
+  protected int generateMoves(int color, int[] moves) {
+    long free = ~(occupied() | CORNERS | GOALS[flipColor(color)]);
+    long own = occupancy[color];
+    if (hasPiecesLeft(color)) {
+      return generateMovesTo(free & ~clusterSquares(own), Move.ADD, 0, moves, 0);
+    }
+    int count = 0;
+    // step moves of the newest pieces first
+    for (int i = pieceCount[color] - 1; i >= 0; i--) {
+      Piece piece = pieces[color][i];
+      int from = square(piece.x, piece.y);
+      long source = 1L << from;
+      // the piece cannot step back onto where it was, but its old square frees its neighbors
+      long targets = free & ~clusterSquares(own & ~source);
+      count = generateMovesTo(targets, Move.STEP, from, moves, count);
+    }
+    return count;
+  }
+
+  /**
+    * Returns the bitboard of every square where a new piece would form a cluster with the
+    * pieces in "own": the squares next to two of them, or next to one that already has a
+    * neighbor in "own". Takes a few bit operations per piece in "own".
+    */
+  private static long clusterSquares(long own) {
+    long once = 0;
+    long twice = 0;
+    long crowded = 0;
+    for (long rest = own; rest != 0; rest &= rest - 1) {
+      long around = NEIGHBORS[Long.numberOfTrailingZeros(rest)];
+      twice |= once & around;
+      once |= around;
+      if ((around & own) != 0) {
+        crowded |= around;
+      }
+    }
+    return twice | crowded;
+  }
+
+  /**
+    * Helper method for generateMoves. Writes a "kind" move from square "from" to each square
+    * of bitboard "targets", starting at index "count" of "moves", and returns the new number
+    * of moves in "moves". Squares come in order of decreasing x, then decreasing y, so each
+    * move costs a few bit operations, plus a few for each column.
+    */
+  private static int generateMovesTo(long targets, int kind, int from, int[] moves, int count) {
+    for (int x = END_INDEX; x >= 0; x--) {
+      // bit y * LENGTH of "column" is square (x, y)
+      long column = (targets >>> x) & COLUMN_LEFT;
+      while (column != 0) {
+        long top = Long.highestOneBit(column);
+        column ^= top;
+        moves[count++] = PackedMove.pack(kind, x + Long.numberOfTrailingZeros(top), from);
+      }
+    }
+    return count;
+  }
+
   // MANIPULATING BOARD
 
   /**
@@ -191,44 +566,101 @@ public class Board {
     * This method updates the board's internal state
     */
   protected void performValidMove(Move move, int color) {
-    if (move.moveKind == move.QUIT) {
+    performValidMove(PackedMove.pack(move), color);
+  }
+
+  /**
+    * Performs a move, packed as by PackedMove, for a specific player represented by "color"
+    * Warning: this method assumes "move" is valid.
+    * This method updates the board's internal state, and allocates nothing once
+    * the player's pieces have all been added.
+    */
+  protected void performValidMove(int move, int color) {
+    int kind = PackedMove.kind(move);
+    if (kind == Move.QUIT) {
       return;
     }
+    int to = PackedMove.to(move);
     Piece piece;
-    if (move.moveKind == move.STEP) {
-      piece = board[move.x2][move.y2];
-      board[move.x2][move.y2] = null;
+    if (kind == Move.STEP) {
+      int from = PackedMove.from(move);
+      piece = board[from % LENGTH][from / LENGTH];
+      board[piece.x][piece.y] = null;
+      toggleOccupancy(piece);
     }
     // ADD move:
     else {
-      piece = new Piece(color, move.x1, move.y1);
-      colorPieces[color].insertFront(piece);
+      int added = pieceCount[color];
+      hash ^= PHASE_KEYS[color][added] ^ PHASE_KEYS[color][added + 1];
+      piece = pieces[color][added];
+      if (piece == null) {
+        piece = new Piece(color, 0, 0);
+        pieces[color][added] = piece;
+      }
+      pieceCount[color]++;
     }
-    board[move.x1][move.y1] = piece;
-    piece.x = move.x1;
-    piece.y = move.y1;
+    piece.x = to % LENGTH;
+    piece.y = to / LENGTH;
+    board[piece.x][piece.y] = piece;
+    toggleOccupancy(piece);
+    setSideToMove(flipColor(color));
   }
 
   /**
     * Reverses a move performed with performValidMove.
     * Takes in the Move "move" that is to be reversed.
     * This method updates the board's internal state
+    * Afterwards the player who made "move" is to move again.
     */
   protected void undoMove(Move move) {
-    if (move.moveKind == move.QUIT) {
+    undoMove(PackedMove.pack(move));
+  }
+
+  /**
+    * Reverses a move performed with performValidMove.
+    * Takes in the move "move", packed as by PackedMove, that is to be reversed.
+    * This method updates the board's internal state
+    * Afterwards the player who made "move" is to move again.
+    */
+  protected void undoMove(int move) {
+    if (PackedMove.kind(move) == Move.QUIT) {
       return;
     }
-    Piece piece = board[move.x1][move.y1];
-    if (move.moveKind == move.STEP) {
-      board[move.x2][move.y2] = piece;
-      piece.x = move.x2;
-      piece.y = move.y2;
+    int to = PackedMove.to(move);
+    Piece piece = board[to % LENGTH][to / LENGTH];
+    board[piece.x][piece.y] = null;
+    toggleOccupancy(piece);
+    if (PackedMove.kind(move) == Move.STEP) {
+      int from = PackedMove.from(move);
+      piece.x = from % LENGTH;
+      piece.y = from / LENGTH;
+      board[piece.x][piece.y] = piece;
+      toggleOccupancy(piece);
     }
     // ADD move:
     else {
-      colorPieces[piece.color].remove(piece);
+      removePiece(piece);
+      int added = pieceCount[piece.color];
+      hash ^= PHASE_KEYS[piece.color][added] ^ PHASE_KEYS[piece.color][added + 1];
+    }
+    setSideToMove(piece.color);
+  }
+
+  /**
+    * Takes "piece" out of its player's pieces, keeping the others in order.
+    * The piece is kept past the end of the pieces on the board, to be reused by the next ADD.
+    */
+  private void removePiece(Piece piece) {
+    Piece[] own = pieces[piece.color];
+    int last = --pieceCount[piece.color];
+    int i = last;
+    while (own[i] != piece) {
+      i--;
+    }
+    for (; i < last; i++) {
+      own[i] = own[i + 1];
     }
-    board[move.x1][move.y1] = null;
+    own[last] = piece;
   }
 
   /**
@@ -237,44 +669,305 @@ public class Board {
     * Returns boolean
     */
   protected boolean hasPiecesLeft(int color) {
-    return colorPieces[color].length() < MAX_PIECES;
+    return pieceCount[color] < MAX_PIECES;
   }
 
   /**
-    * Returns a DList containing all of the pieces that a player has on the board.
+    * Returns a DList containing all of the pieces that a player has on the board, newest first.
     * The player is represented by int "color", which is Board.BLACK or Board.WHITE.
+    * The DList is built on each call; the pieces in it change as moves are made and undone.
     */
   protected DList getPieces(int color) {
-    return colorPieces[color];
+    DList list = new DList();
+    for (int i = pieceCount[color] - 1; i >= 0; i--) {
+      list.insertBack(pieces[color][i]);
+    }
+    return list;
   }
 
   /**
-    * Used to temporarily remove a piece from the board.
-    * Warning: this method is only meant for temporarily removing a piece:
-    * the piece must be added back
+    * Switches the player color.
+    * The player is represented by int "color", which is Board.BLACK or Board.WHITE.
+    * Returns the opposite color, either Board.BLACK or Board.WHITE.
     */
-  void tempRemove (Piece piece) {
-    board[piece.x][piece.y] = null;
+  protected static int flipColor(int color) {
+    return 1-color;
   }
 
+
   /**
-    * Used to restore a temporarily removed "piece" to the board
-    * tempRestore should only be used to restore a piece that was removed
-    * with tempRemove
+    * Checks whether the player represented by int "color" has a network, with the same rules
+    * as findAllNetworks, but stops at the first network found and allocates nothing.
+    * Positions where no group of the player's pieces reaches both goals are ruled out
+    * before searching.
+    * The search walks the sight graph depth first on an explicit stack, keeping the pieces on
+    * the current path in a bitboard, and only steps onto pieces that can still reach the end.
     */
-  void tempRestore (Piece piece) {
-    board[piece.x][piece.y] = piece;
+  protected boolean hasNetwork(int color) {
+    long own = occupancy[color];
+    long start = own & START_GOALS[color];
+    long end = own & GOALS[color] & ~START_GOALS[color];
+    if (stats != null) {
+      stats.networkChecks++;
+    }
+    if (!goalsConnected(color)) {
+      if (stats != null) {
+        stats.networksFiltered++;
+      }
+      return false;
+    }
+    // the pieces that can still lead to the end goal without going back to the start goal
+    long live = reachable(end, own & ~START_GOALS[color]);
+    while (start != 0) {
+      int depth = 0;
+      pathSquare[0] = Long.numberOfTrailingZeros(start);
+      pathDirection[0] = DIRECTION_NONE;
+      pathNext[0] = 0;
+      long path = start & -start;
+      start &= start - 1;
+      while (depth >= 0) {
+        int direction = pathNext[depth]++;
+        if (direction == DIRECTIONS.length) {
+          path ^= 1L << pathSquare[depth];
+          depth--;
+          continue;
+        }
+        // a network cannot pass straight through a piece
+        if (direction == pathDirection[depth]) {
+          continue;
+        }
+        int next = nextInSight(pathSquare[depth], direction);
+        if (next < 0) {
+          continue;
+        }
+        long nextBit = 1L << next;
+        if ((live & nextBit) == 0 || (path & nextBit) != 0) {
+          continue;
+        }
+        if ((end & nextBit) != 0) {
+          if (depth + 2 >= MIN_NETWORK) {
+            return true;
+          }
+          continue;
+        }
+        depth++;
+        pathSquare[depth] = next;
+        pathDirection[depth] = direction;
+        pathNext[depth] = 0;
+        path |= nextBit;
+      }
+    }
+    return false;
   }
 
   /**
-    * Switches the player color.
-    * The player is represented by int "color", which is Board.BLACK or Board.WHITE.
-    * Returns the opposite color, either Board.BLACK or Board.WHITE.
+    * Checks whether the player represented by int "color" has enough pieces for a network and a
+    * group of them, linked by lines of sight, that reaches both of its goals. Every network
+    * needs both, so if either is missing there is no need to look for one.
     */
-  protected static int flipColor(int color) {
-    return 1-color;
+  private boolean goalsConnected(int color) {
+    long own = occupancy[color];
+    if (Long.bitCount(own) < MIN_NETWORK) {
+      return false;
+    }
+    long end = own & GOALS[color] & ~START_GOALS[color];
+    return (reachable(own & START_GOALS[color], own) & end) != 0;
+  }
+
+  /**
+    * Checks whether the player represented by int "color" can complete a network with one move.
+    * The answer is kept in the evaluation cache, if there is one and it holds the position.
+    */
+  protected boolean hasThreat(int color) {
+    if (evalCache == null) {
+      return findThreat(color, true);
+    }
+    long key = evalKey();
+    int entry = evalCache.probe(key);
+    if (entry != EvalCache.MISS && EvalCache.threatKnown(entry, color)) {
+      return EvalCache.hasThreat(entry, color);
+    }
+    boolean threat = findThreat(color, true);
+    if (entry != EvalCache.MISS) {
+      evalCache.store(key, EvalCache.withThreat(entry, color, threat));
+    }
+    return threat;
+  }
+
+  /**
+    * Checks whether the player represented by int "color" might be able to complete a network
+    * with one move: false only if hasThreat is. Cheaper than hasThreat, since no move is made,
+    * unless the evaluation cache already knows the answer.
+    */
+  protected boolean mayHaveThreat(int color) {
+    if (evalCache != null) {
+      int entry = evalCache.probe(evalKey());
+      if (entry != EvalCache.MISS && EvalCache.threatKnown(entry, color)) {
+        return EvalCache.hasThreat(entry, color);
+      }
+    }
+    return findThreat(color, false);
+  }
+
+  /**
+    * Checks whether the player represented by int "color" can complete a network with one move.
+    * The piece moved must then be part of the network, linking a group of the player's pieces
+    * that reaches the start goal to one that reaches the end goal. So only squares where that is
+    * possible, found with the sight graph and reachable, are tried, each by making the move and
+    * calling hasNetwork. Most positions have no such square at all.
+    * STEP moves are judged by the lines of sight before the piece leaves, so those that only
+    * complete a network by clearing a line are not found.
+    * Unless "complete" is true, the first such square is taken as a threat without trying it.
+    */
+  private boolean findThreat(int color, boolean complete) {
+    long own = occupancy[color];
+    boolean adding = hasPiecesLeft(color);
+    if (Long.bitCount(own) < (adding ? MIN_NETWORK - 1 : MIN_NETWORK)) {
+      return false;
+    }
+    long startLine = START_GOALS[color];
+    long endLine = GOALS[color] & ~startLine;
+    long fromStart = reachable(own & startLine, own);
+    long fromEnd = reachable(own & endLine, own);
+    // the network would be made of these pieces and the one moved
+    if (Long.bitCount(fromStart | fromEnd) + 1 < MIN_NETWORK) {
+      return false;
+    }
+    long targets = ~(occupied() | CORNERS | GOALS[flipColor(color)])
+        & (startLine | inSight(fromStart)) & (endLine | inSight(fromEnd));
+    while (targets != 0) {
+      int to = Long.numberOfTrailingZeros(targets);
+      targets &= targets - 1;
+      if (!canLink(to, fromStart, fromEnd, color)) {
+        continue;
+      }
+      if (!complete) {
+        return true;
+      }
+      if (adding) {
+        if (completesNetwork(PackedMove.pack(Move.ADD, to, 0), color, own)) {
+          return true;
+        }
+        continue;
+      }
+      for (int i = 0; i < pieceCount[color]; i++) {
+        int from = square(pieces[color][i].x, pieces[color][i].y);
+        if (completesNetwork(PackedMove.pack(Move.STEP, to, from), color, own & ~(1L << from))) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+    * Checks whether a piece of the player represented by int "color" on the empty square "to"
+    * could link the pieces "fromStart", reaching the start goal, to the pieces "fromEnd",
+    * reaching the end goal. It must see one of each, in directions that are neither the same
+    * nor opposite, since a network cannot pass straight through it; on a goal line it needs
+    * only to see pieces reaching the other goal.
+    */
+  private boolean canLink(int to, long fromStart, long fromEnd, int color) {
+    long occupied = occupied();
+    int startDirections = 0;
+    int endDirections = 0;
+    for (int direction : DIRECTIONS) {
+      int next = firstBlocker(to, direction, occupied);
+      if (next >= 0 && (fromStart & (1L << next)) != 0) {
+        startDirections |= 1 << direction;
+      }
+      if (next >= 0 && (fromEnd & (1L << next)) != 0) {
+        endDirections |= 1 << direction;
+      }
+    }
+    if ((START_GOALS[color] & (1L << to)) != 0) {
+      return endDirections != 0;
+    }
+    if ((GOALS[color] & ~START_GOALS[color] & (1L << to)) != 0) {
+      return startDirections != 0;
+    }
+    for (int direction : DIRECTIONS) {
+      int straight = 1 << direction | 1 << opposite(direction);
+      if ((startDirections & (1 << direction)) != 0 && (endDirections & ~straight) != 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+    * Checks whether the packed move "move" by the player represented by int "color" is valid and
+    * gives that player a network. "own" holds the player's pieces, less the one a STEP moves.
+    * The board is left as it was, including who is to move.
+    */
+  private boolean completesNetwork(int move, int color, long own) {
+    if (formsCluster(PackedMove.to(move), own)) {
+      return false;
+    }
+    int side = sideToMove;
+    performValidMove(move, color);
+    boolean network = hasNetwork(color);
+    undoMove(move);
+    setSideToMove(side);
+    return network;
+  }
+
+  /**
+    * Returns the empty squares seen from any of the occupied squares "from".
+    */
+  private long inSight(long from) {
+    long seen = 0;
+    while (from != 0) {
+      int square = Long.numberOfTrailingZeros(from);
+      from &= from - 1;
+      for (int direction : DIRECTIONS) {
+        long ray = RAYS[direction][square];
+        int next = nextInSight(square, direction);
+        if (next >= 0) {
+          ray &= ~(RAYS[direction][next] | 1L << next);
+        }
+        seen |= ray;
+      }
+    }
+    return seen;
+  }
+
+  /**
+    * Returns the squares of "own" connected to the squares "from" by lines of sight between
+    * squares of "own", "from" included. A flood fill over the sight graph: no network can join
+    * squares that it leaves apart, so it is a cheap way to rule networks out.
+    */
+  private long reachable(long from, long own) {
+    long reached = from;
+    long frontier = from;
+    while (frontier != 0) {
+      int square = Long.numberOfTrailingZeros(frontier);
+      frontier &= frontier - 1;
+      for (int direction : DIRECTIONS) {
+        int next = nextInSight(square, direction);
+        if (next >= 0 && (own & ~reached & (1L << next)) != 0) {
+          reached |= 1L << next;
+          frontier |= 1L << next;
+        }
+      }
+    }
+    return reached;
   }
 
+  /**
+    * Sets the counters that network checks are recorded in, or stops counting if "stats" is null.
+    */
+  protected void setStatistics(SearchStats stats) {
+    this.stats = stats;
+  }
+
+  /**
+    * Sets the cache that evaluate looks positions up in, or stops caching if "cache" is null.
+    * The cache may be shared with boards searched by other threads.
+    */
+  protected void setEvalCache(EvalCache cache) {
+    evalCache = cache;
+  }
 
   /**
     * Finds all the networks currently on the board for a certain player.
@@ -283,8 +976,11 @@ public class Board {
     */
   protected DList findAllNetworks(int color)
   {
-    DList beginningZonePieces = beginningZonePieces(color);
     DList networks = new DList();
+    if (!goalsConnected(color)) {
+      return networks;
+    }
+    DList beginningZonePieces = beginningZonePieces(color);
 
     for (ListNode pieceNode : beginningZonePieces) {
       Piece piece = (Piece) pieceNode.item();
@@ -312,7 +1008,7 @@ public class Board {
         return; //invalid network
       }
       if (isOnValidGoal(piece.x, piece.y, currentNetwork.color)) {
-        if (currentNetwork.numPieces() >= 6) {
+        if (currentNetwork.numPieces() >= MIN_NETWORK) {
           networks.insertBack(currentNetwork.copy());
         }
         return; //invalid network
@@ -365,69 +1061,14 @@ public class Board {
     * Starting from "piece", returns the next Piece object of the same color in a specified direction.
     * Returns null if not found.
     * The values for different directions can be found in Board.DIRECTIONS
+    * Reads the sight graph, so it takes constant time.
     */
   private Piece findNextPieceInDirection(Piece piece, int direction) {
-    int[] pieceCoordinate = new int[] {piece.x, piece.y};
-    int[] coordinate = incrementCoordinateInDirection(pieceCoordinate, direction);
-    while (containsCoordinate(coordinate)) {
-      Piece next = pieceAtCoordinate(coordinate);
-      if (next != null) {
-        return next;
-      }
-      coordinate = incrementCoordinateInDirection(coordinate, direction);
-    }
-    return null;
-  }
-
-  /**
-    *  Returns the next coordinate in direction.
-    * Takes in an array of two ints, which represents an [x,y] coordinate pair
-    * Takes in a direction.
-    * Returns an array of two ints, which represents an [x,y] coordinate pair
-    */
-  private int[] incrementCoordinateInDirection(int[] coordinate, int direction) {
-    int x = coordinate[0];
-    int y = coordinate[1];
-    if (direction == DIRECTION_UP) {
-      y--;
-    }
-    else if (direction == DIRECTION_UP_RIGHT) {
-      x++;
-      y--;
-    } else if (direction == DIRECTION_RIGHT) {
-      x++;
-    }
-    else if (direction == DIRECTION_DOWN_RIGHT) {
-      x++;
-      y++;
-    } else if (direction == DIRECTION_DOWN) {
-      y++;
+    int next = nextInSight(square(piece.x, piece.y), direction);
+    if (next < 0) {
+      return null;
     }
-    else if (direction == DIRECTION_DOWN_LEFT) {
-      x--;
-      y++;
-    } else if (direction == DIRECTION_LEFT) {
-      x--;
-    }
-    else if (direction == DIRECTION_UP_LEFT) {
-      x--;
-      y--;
-    }
-    coordinate[0] = x;
-    coordinate[1] = y;
-    return coordinate;
-  }
-
-
-  /**
-    *  Checks if coordinate is on the board.
-    *  Coordinate is an int[] representing an [x,y] coordinate pair
-    *  Returns a boolean
-    */
-  private boolean containsCoordinate(int[] coordinate) {
-    int x = coordinate[0];
-    int y = coordinate[1];
-    return (x < LENGTH && x >= 0 && y < LENGTH && y >= 0);
+    return pieceAt(next);
   }
 
   /**
@@ -500,88 +1141,77 @@ public class Board {
   /**
     *  Helper function for evaluate that calculates an intermediate score for a board.
     * Takes in a player's color to determine who to score the board for.
-    * Returns an integer ranging from Integer.MIN_VALUE to Integer.MAX_VALUE
+    * Returns an integer strictly between Board.OPP_WIN and Board.MY_WIN
     */
   private int intermediate (int player) {
-    DList playerPieces = getPieces(player);
-    DList opponentPieces = getPieces(flipColor(player));
-    
-    //calculate a score based on how many pieces each piece can see (doesn't matter if pieces double counted)
-    int yourScore = 0;
-    for (ListNode currentPiece : playerPieces) {
-      yourScore += numPairsPieceCanForm((Piece)currentPiece.item());   
-    }
-
-    //do same for opponent
-    int otherScore = 0;
-    for (ListNode currentPiece : opponentPieces) {
-      otherScore += numPairsPieceCanForm((Piece)currentPiece.item());
-    }
-
     //difference between number of pieces each piece can see from my side and opponent's side
-    return (yourScore - otherScore) * 10;
+    //(doesn't matter if pieces double counted); the counts are kept up to date as moves are made
+    return (pairs[player] - pairs[flipColor(player)]) * 10;
   }
 
+
+
   /**
     * Returns an evaluation score for the current board, for a specified player.
     * The player is represented by int "color", which is Board.BLACK or Board.WHITE.
     * "runIntermediate" determines whether or not the function returns an intermediate score 
     * if no definite wins/losses are found. 
     * If runIntermediate is false, and no wins/losses are found, evaluate returns 0.
-    * Evaluate returns an integer ranging from Board.MY_WIN to Board.OPP_WIN,
-    * which is Integer.MIN_VALUE to Integer.MAX_VALUE
+    * Evaluate returns an integer ranging from Board.OPP_WIN to Board.MY_WIN
     */
   protected int evaluate(int player, boolean runIntermediate) {
-
+    int entry = evaluation();
     //find if any network reaches goal, if so then return my win
-    DList networks = findAllNetworks(player);
-    
-    //look at all networks and determine whether pieces are at opposite goals
-    for (ListNode current : networks) {
-      Chain network = (Chain) current.item();
-
-      DList pieces = network.getPieces();
-      Piece front = (Piece) pieces.front().item();
-      Piece back = (Piece) pieces.back().item();
-      
-      if (this.isOnValidGoal(front.x, front.y, player)
-          && this.isOnValidGoal(back.x, back.y, player)) {
-        return MY_WIN;
-      }
+    if (EvalCache.hasNetwork(entry, player)) {
+      return MY_WIN;
     }
-
-    player = flipColor(player);
-    networks = findAllNetworks(player);
-    int otherPlacedPieces = 0;
-
-    //look at all networks and determine whether pieces are at opposite goals 
-    for (ListNode current : networks) {
-      Chain network = (Chain) current.item();
-      DList pieces = network.getPieces();
-      Piece front = (Piece) pieces.front().item();
-      Piece back = (Piece) pieces.back().item();
-      otherPlacedPieces += pieces.length();
-
-      if (this.isOnValidGoal(front.x, front.y, player)
-          && this.isOnValidGoal(back.x, back.y, player)) {
-        return OPP_WIN;
-      }
+    if (EvalCache.hasNetwork(entry, flipColor(player))) {
+      return OPP_WIN;
     }
-    //if neither opponent has a sure win, then calculate an intermediate score and sum it with a score based on if I can add or set
+    //if neither opponent has a sure win, then calculate an intermediate score
     if (runIntermediate) {
-      return intermediate(flipColor(player));
+      return EvalCache.score(entry, player);
     }
     return 0;
   }
 
+  /**
+    * Returns the static evaluation of the current board as an EvalCache entry: which players
+    * have networks, and the intermediate score. Looks it up in the evaluation cache first,
+    * if there is one, and records it there otherwise.
+    */
+  private int evaluation() {
+    long key = evalKey();
+    if (evalCache != null) {
+      int entry = evalCache.probe(key);
+      if (stats != null) {
+        if (entry != EvalCache.MISS) {
+          stats.evalHits++;
+        } else {
+          stats.evalMisses++;
+        }
+      }
+      if (entry != EvalCache.MISS) {
+        return entry;
+      }
+    }
+    int entry = EvalCache.entry(hasNetwork(BLACK), hasNetwork(WHITE), intermediate(BLACK));
+    if (evalCache != null) {
+      evalCache.store(key, entry);
+    }
+    return entry;
+  }
+
+
+
   /**
     * Returns the number of pairs a Piece can form with the pieces around it.
     */
   private int numPairsPieceCanForm(Piece piece) {
     int num = 0;
+    int square = square(piece.x, piece.y);
     for (int direction : DIRECTIONS) {
-      Piece nextPiece = findNextPieceInDirection(piece, direction);
-      if (nextPiece != null) {
+      if (nextInSight(square, direction) >= 0) {
         num++;
       }
     }
@@ -612,6 +1242,56 @@ public class Board {
     return result;
   }
 
+  // Checks every occupied square's sight against walking the rays from scratch,
+  // and the pair counts against counting them piece by piece.
+  private static boolean sightMatchesRays(Board b) {
+    for (int color = BLACK; color <= WHITE; color++) {
+      int pairs = 0;
+      for (int i = 0; i < b.pieceCount[color]; i++) {
+        pairs += b.numPairsPieceCanForm(b.pieces[color][i]);
+      }
+      if (pairs != b.pairs[color]) {
+        return false;
+      }
+    }
+    for (int square = 0; square < SQUARES; square++) {
+      if ((b.occupied() & (1L << square)) == 0) {
+        continue;
+      }
+      for (int direction : DIRECTIONS) {
+        if (b.nextInSight(square, direction) != firstBlocker(square, direction, b.occupied())) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  // Checks generateMoves against trying every move with isValidMove, in the order
+  // generateMoves promises: newest piece first, then decreasing x, then decreasing y.
+  private static boolean movesMatchValidity(Board b, int color) {
+    int[] moves = new int[MAX_MOVES];
+    int count = b.generateMoves(color, moves);
+    int expected = 0;
+    boolean adding = b.hasPiecesLeft(color);
+    for (int i = adding ? 0 : b.pieceCount[color] - 1; i >= 0; i--) {
+      Piece piece = b.pieces[color][i];
+      for (int x = END_INDEX; x >= 0; x--) {
+        for (int y = END_INDEX; y >= 0; y--) {
+          Move m = adding ? new Move(x, y) : new Move(x, y, piece.x, piece.y);
+          if (b.isValidMove(m, color)) {
+            if (expected >= count
+                || !PackedMove.unpack(moves[expected]).toString().equals(m.toString())) {
+              return false;
+            }
+            expected++;
+          }
+        }
+      }
+    }
+    return expected == count;
+  }
+
   private static void expect(Object expect, Object o) {
     System.out.println("Expect " + expect + ": " + o);
   }
@@ -676,6 +1356,30 @@ public class Board {
     expect(true, b.isInCluster(7, 4, WHITE));
     expect(false, b.isInCluster(7, 4, BLACK));
     expect(true, b.isInCluster(7, 2, WHITE));
+    expect(false, formsCluster(square(0, 0), bit(1, 1)));
+    expect(true, formsCluster(square(0, 0), bit(1, 1) | bit(2, 2)));
+    expect(true, formsCluster(square(0, 0), bit(1, 0) | bit(0, 1)));
+    expect(false, formsCluster(square(7, 0), bit(0, 1) | bit(0, 2))); // no wrapping around
+    expect(false, formsCluster(square(0, 1), bit(7, 0) | bit(7, 1)));
+
+    // bitboards
+    print("bitboards");
+    expect(bit(7, 2) | bit(6, 3), b.occupancy(WHITE));
+    expect(bit(1, 5), b.occupancy(BLACK));
+    expect(bit(1, 0) | bit(0, 1) | bit(1, 1), neighbors(bit(0, 0)));
+    expect(0L, GOALS[BLACK] & GOALS[WHITE]);
+    expect(12, Long.bitCount(GOALS[WHITE]));
+    m = new Move(5, 4, 7, 2);
+    expect(true, b.isValidMove(m, WHITE));
+    m = new Move(7, 3, 7, 2);
+    expect(true, b.isValidMove(m, WHITE)); // the source piece does not count toward a cluster
+    m = new Move(6, 2, 1, 5);
+    expect(true, b.isValidMove(m, BLACK));
+    m = new Move(7, 3, 1, 5);
+    expect(false, b.isValidMove(m, BLACK));
+
+    expect(true, movesMatchValidity(b, WHITE));
+    expect(true, movesMatchValidity(b, BLACK));
 
     // isValidMove
     print("isValidMove");
@@ -692,6 +1396,17 @@ public class Board {
     m = new Move(7, 7);
     expect(false, b.isValidMove(m, BLACK));
 
+    // generateMoves in the step phase
+    Board steps = new Board();
+    int[] moves = new int[MAX_MOVES];
+    for (int i = 0; i < 2 * MAX_PIECES; i++) {
+      int color = i % 2 == 0 ? WHITE : BLACK;
+      steps.performValidMove(moves[steps.generateMoves(color, moves) / 2], color);
+    }
+    expect(false, steps.hasPiecesLeft(WHITE));
+    expect(true, movesMatchValidity(steps, WHITE));
+    expect(true, movesMatchValidity(steps, BLACK));
+
     // FINDING NETWORKS
     print("");
     print("FINDING NETWORKS");
@@ -705,11 +1420,12 @@ public class Board {
     b.performValidMove(m, BLACK);
     expect(1, b.beginningZonePieces(BLACK).length());
 
-    // increment direction
-    int[] c;
-    c = b.incrementCoordinateInDirection(new int[] { 0, 0 },
-        DIRECTION_UP_LEFT);
-    expect("[-1, -1]", Arrays.toString(c));
+    // rays
+    expect(0L, RAYS[DIRECTION_UP_LEFT][square(0, 0)]);
+    expect(END_INDEX, Long.bitCount(RAYS[DIRECTION_DOWN_RIGHT][square(0, 0)]));
+    expect(square(1, 5), firstBlocker(square(1, 0), DIRECTION_DOWN, b.occupied()));
+    expect(square(2, 0), firstBlocker(square(7, 0), DIRECTION_LEFT, b.occupied()));
+    expect(-1, firstBlocker(square(1, 5), DIRECTION_UP, b.occupied()));
 
     // findNextPieceInDirection
     Piece p = b.pieceAtCoordinate(new int[] { 1, 5 });
@@ -720,6 +1436,78 @@ public class Board {
     p1 = b.findNextPieceInDirection(p, DIRECTION_UP_RIGHT);
     expect("[0:4,2]", p1);
 
+    // hashing
+    print("hashing");
+    b = new Board();
+    long emptyKey = b.hashKey();
+    Move first = new Move(2, 2);
+    Move second = new Move(4, 4);
+    b.performValidMove(first, WHITE);
+    b.performValidMove(second, BLACK);
+    long key = b.hashKey();
+    b.undoMove(second);
+    b.undoMove(first);
+    expect(true, b.hashKey() == emptyKey);
+    b.performValidMove(new Move(4, 4), BLACK);
+    expect(false, b.hashKey() == key);
+    b.performValidMove(new Move(2, 2), WHITE);
+    expect(false, b.hashKey() == key); // same pieces, but white is now to move
+    b = new Board();
+    b.performValidMove(new Move(2, 2), WHITE);
+    b.performValidMove(new Move(4, 4), BLACK);
+    m = new Move(3, 2, 2, 2);
+    b.performValidMove(m, WHITE);
+    key = b.hashKey();
+    b.undoMove(m);
+    b.performValidMove(new Move(3, 2, 2, 2), WHITE);
+    expect(true, b.hashKey() == key);
+
+    // copy
+    Board copy = b.copy();
+    expect(true, copy.hashKey() == b.hashKey());
+    expect(true, copy.toString().equals(b.toString()));
+    copy.undoMove(m);
+    expect(false, copy.hashKey() == b.hashKey());
+    expect(true, b.occupancy(WHITE) == bit(3, 2));
+    // copyFrom onto a board holding other pieces leaves none of them behind
+    copy.performValidMove(new Move(6, 6), BLACK);
+    copy.copyFrom(b);
+    expect(true, copy.hashKey() == b.hashKey());
+    expect(true, copy.toString().equals(b.toString()));
+    expect(true, sightMatchesRays(copy));
+    // ... even where the copied position has a black piece on a square that held a white one
+    Board target = new Board();
+    target.performValidMove(new Move(3, 3), WHITE);
+    Board source = new Board();
+    source.performValidMove(new Move(5, 5), WHITE);
+    source.performValidMove(new Move(3, 3), BLACK);
+    target.copyFrom(source);
+    expect(true, target.board[3][3] != null && target.board[3][3].color == BLACK);
+    expect(true, target.board[5][5] != null && target.board[5][5].color == WHITE);
+    expect(true, target.toString().equals(source.toString()));
+
+    // sight graph
+    print("sight");
+    b = new Board();
+    b.performValidMove(new Move(2, 2), WHITE);
+    b.performValidMove(new Move(5, 2), BLACK);
+    b.performValidMove(new Move(5, 5), WHITE);
+    b.performValidMove(new Move(3, 2), BLACK);
+    expect(square(3, 2), b.nextInSight(square(2, 2), DIRECTION_RIGHT));
+    expect(square(5, 5), b.nextInSight(square(2, 2), DIRECTION_DOWN_RIGHT));
+    expect(-1, b.nextInSight(square(2, 2), DIRECTION_LEFT));
+    m = new Move(4, 2, 3, 2);
+    b.performValidMove(m, BLACK);
+    expect(square(4, 2), b.nextInSight(square(2, 2), DIRECTION_RIGHT));
+    expect(true, sightMatchesRays(b));
+    b.undoMove(m);
+    expect(square(3, 2), b.nextInSight(square(2, 2), DIRECTION_RIGHT));
+    expect(true, sightMatchesRays(b));
+    b.undoMove(new Move(3, 2));
+    expect(square(5, 2), b.nextInSight(square(2, 2), DIRECTION_RIGHT));
+    expect(true, sightMatchesRays(b));
+    expect(true, sightMatchesRays(b.copy()));
+
     b = new Board();
 
     // Find Network:
@@ -728,8 +1516,25 @@ public class Board {
     b.performValidMove(new Move(3, 2), WHITE);
     b.performValidMove(new Move(4, 3), WHITE);
     b.performValidMove(new Move(5, 3), WHITE);
+    expect(true, b.hasThreat(WHITE));
+    expect(true, b.mayHaveThreat(WHITE));
+    expect(false, b.hasThreat(BLACK));
+    expect(false, b.mayHaveThreat(BLACK));
+    b.performValidMove(new Move(1, 3), BLACK);
+    expect(false, b.hasThreat(WHITE));
+    b.undoMove(new Move(1, 3));
     b.performValidMove(new Move(7, 5), WHITE);
+    expect(true, b.hasNetwork(WHITE));
+    expect(false, b.hasNetwork(BLACK));
+    expect(true, b.evaluate(WHITE, false) == MY_WIN);
+    int score = b.evaluate(BLACK, true);
+    b.setEvalCache(new EvalCache(4));
+    expect(true, b.evaluate(BLACK, false) == OPP_WIN);
+    expect(true, b.evaluate(BLACK, true) == score); // from the cache
     b.performValidMove(new Move(1, 3), BLACK);
+    expect(false, b.hasNetwork(WHITE));
+    expect(0, b.evaluate(WHITE, false));
+    b.setEvalCache(null);
     print(b);
     print("eval " + b.evaluate(0, true));
   }
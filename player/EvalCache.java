@@ -0,0 +1,103 @@
+package player;
+
+  /**
+    * Fixed-size, direct-mapped cache of static evaluations, keyed by Board.evalKey().
+    * Each slot holds an entry (which players have a network, which can complete one with a
+    * single move if that has been looked at, and the intermediate score from black's side)
+    * in a flat int array, and its key XORed with that entry in a long array.
+    * Like TranspositionTable, it can be shared by several threads without locks: a write torn
+    * between two threads leaves a key and entry that no longer match, and probe misses.
+    * A new entry always replaces the one in its slot.
+    */
+public class EvalCache {
+  // Returned by probe when a position is not in the cache.
+  protected static final int MISS = 0;
+
+  // Layout of an entry, from the low bits: a used flag, one network flag per color
+  // (black, then white), one flag per color telling whether its threat is known,
+  // one threat flag per color, and the intermediate score from black's side.
+  private static final int USED = 1;
+  private static final int NETWORK_SHIFT = 1;
+  private static final int THREAT_KNOWN_SHIFT = 3;
+  private static final int THREAT_SHIFT = 5;
+  private static final int SCORE_SHIFT = 7;
+
+  private long[] checks; // key ^ entry
+  private int[] entries;
+  private int slotMask;
+
+  /**
+    * Constructs an empty cache of 2^sizeBits slots.
+    */
+  public EvalCache(int sizeBits) {
+    int size = 1 << sizeBits;
+    checks = new long[size];
+    entries = new int[size];
+    slotMask = size - 1;
+  }
+
+  /**
+    * Returns the entry for position "key", or MISS if it is not in the cache.
+    * Read the fields of the entry with hasNetwork and score.
+    */
+  protected int probe(long key) {
+    int slot = slot(key);
+    int entry = entries[slot];
+    if (entry != MISS && (checks[slot] ^ entry) == key) {
+      return entry;
+    }
+    return MISS;
+  }
+
+  /**
+    * Records the entry "entry", as made by entry(), for position "key".
+    */
+  protected void store(long key, int entry) {
+    int slot = slot(key);
+    checks[slot] = key ^ entry;
+    entries[slot] = entry;
+  }
+
+  /**
+    * Returns an entry recording whether black and white have networks, and the intermediate
+    * score "blackScore" from black's side.
+    */
+  protected static int entry(boolean blackNetwork, boolean whiteNetwork, int blackScore) {
+    int networks = (blackNetwork ? 1 << Board.BLACK : 0) | (whiteNetwork ? 1 << Board.WHITE : 0);
+    return (blackScore << SCORE_SHIFT) | (networks << NETWORK_SHIFT) | USED;
+  }
+
+  /**
+    * Returns "entry" with the threat of the player "color" recorded as known, and as "threat".
+    */
+  protected static int withThreat(int entry, int color, boolean threat) {
+    entry |= 1 << (THREAT_KNOWN_SHIFT + color);
+    return threat ? entry | 1 << (THREAT_SHIFT + color) : entry;
+  }
+
+  // Accessors for the fields of "entry", as returned by probe.
+
+  protected static boolean hasNetwork(int entry, int color) {
+    return (entry & (1 << (NETWORK_SHIFT + color))) != 0;
+  }
+
+  protected static boolean threatKnown(int entry, int color) {
+    return (entry & (1 << (THREAT_KNOWN_SHIFT + color))) != 0;
+  }
+
+  protected static boolean hasThreat(int entry, int color) {
+    return (entry & (1 << (THREAT_SHIFT + color))) != 0;
+  }
+
+  protected static int score(int entry, int color) {
+    int blackScore = entry >> SCORE_SHIFT;
+    return color == Board.BLACK ? blackScore : -blackScore;
+  }
+
+  /**
+    * Returns the slot for position "key"
+    */
+  private int slot(long key) {
+    return (int) (key ^ (key >>> 32)) & slotMask;
+  }
+}
@@ -3,7 +3,9 @@
 package player;
 
 import list.*;
-import java.util.Arrays; // DEBUGGING PURPOSES ONLY
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 /**
  *  An implementation of an automatic Network player.  Keeps track of moves
@@ -16,27 +18,225 @@ public class MachinePlayer extends Player {
   private int oppColor;
   private int searchDepth;
   private int variableSearchDepth;
-  private static final int DEFAULT_DEPTH = 4;
-  private static final int STEP_DEPTH_DROP = 2;
+  private TranspositionTable table; // null when searching without one
+  private EvalCache evalCache;      // null when evaluating without one; shared with helpers
+  private long timeBudget;          // milliseconds per move; 0 for a fixed depth search
+  private long deadline;            // System.nanoTime() at which a timed search gives up
+  private boolean searchAborted;    // true once the current timed search has run out of time
+  private int rootFirstMove;        // packed; searched first at the root: the last iteration's best
+  private int rootBestMove;         // packed best move found at the root by the current search
+  private long nodes;               // positions visited by the current search
+  private ForkJoinPool pool;        // null for a single-threaded search
+  private int threads;              // threads searching in parallel
+  private boolean lazySmp;          // true: threads share only the table; false: they split moves
+  private boolean pvs;              // true for Principal Variation Search with aspiration windows
+  private int extensionBudget;      // most threat extensions on one line
+  private int extended;             // threat extensions on the line being searched
+  private int reduced;              // levels taken off the line being searched by reductions
+  private int stepDepthDrop;        // levels less searched in the step phase, for a fixed depth
+  private boolean reductions;       // true for late move reductions in the step phase
+  private boolean nullMove;         // true for null move pruning in the step phase
+  private boolean afterNullMove;    // true while entering the position after a null move
+  private boolean futility;         // true for futility pruning next to the leaves
+  private boolean probCut;          // true for ProbCut far from the leaves
+  private OpeningBook book;         // moves for early positions, or null
+  private ProofSolver solver;       // null when choosing moves without proofs
+  private int solverPlies;          // longest forced network the solver looks for
+  private long solverBudget;        // positions the solver may expand per move
+  private boolean ponder;           // true to search the expected reply on the opponent's time
+  private Thread ponderThread;      // the thread pondering, or null
+  private MachinePlayer ponderer;   // the helper searching on ponderThread
+  private int ponderMove;           // packed; the opponent's reply being pondered
+  private boolean ponderHit;        // true once the opponent has played the pondered reply
+  private int ponderedDepth;        // deepest search the ponder finished, for the next search
+  private int ponderedMove;         // packed; the best move of that search, or of a ponder's
+  private int ponderedScore;        // and its score
+  private boolean tableWarm;        // true once a ponder has filled the table for the next search
+  private boolean reuse;            // true to keep the table and move ordering between searches
+  private MonteCarloSearch monteCarlo; // null when searching with alpha-beta
+  private int playouts;             // random games per Monte Carlo search, without a time budget
+  private SplitPoint splitPoint;    // for helpers: the split point their search belongs to
+  private int rootRotation;         // for Lazy SMP helpers: how far to rotate the root move order
+  // per thread, the helpers idle there, linked through nextIdle; shared by a player and its helpers
+  private ThreadLocal<MachinePlayer> idleHelpers;
+  private MachinePlayer nextIdle;
+  private int[][] killers;          // per depth, the two latest moves that caused a cutoff
+  private int[] history;            // per (color, from, to), how much the move caused cutoffs
+  private SearchStats stats;
+  // per depth, the moves (packed as by PackedMove) and their ordering scores,
+  // so that searching allocates no move lists
+  private int[][] moveStack;
+  private int[][] orderStack;
+  static final int DEFAULT_DEPTH = 4;
+  static final int STEP_DEPTH_DROP = 2;
+  // deepest level a search can reach; scores within MAX_PLY of a win are wins
+  private static final int MAX_PLY = 64;
+  // a timed search looks at the clock once every CLOCK_CHECK_NODES positions
+  private static final int CLOCK_CHECK_NODES = 1024;
+  // a parallel search only splits positions at least this many levels above the leaves
+  private static final int SPLIT_MIN_DEPTH = 2;
+  // move ordering priorities: the table's move, then killers, then by history
+  private static final int TABLE_MOVE_ORDER = Integer.MAX_VALUE;
+  private static final int KILLER_ORDER = Integer.MAX_VALUE - 2;
+  private static final int HISTORY_LIMIT = 1 << 24;
+  // late move reductions: which moves are reduced by one level, which by two,
+  // and how far from the leaves
+  private static final int REDUCTION_FIRST_MOVE = 3;
+  private static final int DOUBLE_REDUCTION_FIRST_MOVE = 12;
+  private static final int REDUCTION_MIN_DEPTH = 2;
+  // null move pruning: how much shallower the search after a pass is, and how far from the leaves
+  private static final int NULL_MOVE_REDUCTION = 2;
+  private static final int NULL_MOVE_MIN_DEPTH = 2;
+  // futility pruning: the most one move can raise its player's Board.intermediate score
+  // (two pairs along each of the four lines through the square it lands on), and how far
+  // from the leaves moves are pruned
+  private static final int FUTILITY_MARGIN = 80;
+  private static final int FUTILITY_MAX_DEPTH = 2;
+  // ProbCut: how much shallower the predicting search is, how far past the bound its score
+  // has to be (about one and a half standard deviations of the deep score around the
+  // shallow one), and how far from the leaves it is tried
+  private static final int PROBCUT_REDUCTION = 2;
+  private static final int PROBCUT_MARGIN = 40;
+  private static final int PROBCUT_MIN_DEPTH = 3;
+  // the proof-number solver's table holds 2^SOLVER_TABLE_BITS entries
+  private static final int SOLVER_TABLE_BITS = 16;
+  // with a time budget, the solver may use up to 1/SOLVER_TIME_SHARE of it
+  private static final int SOLVER_TIME_SHARE = 4;
+  // the Monte Carlo tree search's pool holds 2^MONTE_CARLO_NODE_BITS nodes
+  private static final int MONTE_CARLO_NODE_BITS = 19;
+  // a timed ponder gives up after this many time budgets, in case no reply comes
+  private static final int PONDER_BUDGETS = 4;
+  // half the width of an aspiration window: five pairs' worth of Board.intermediate
+  private static final int ASPIRATION_WINDOW = 50;
 
   // Creates a machine player with the given color.  Color is either 0 (black)
   // or 1 (white).  (White has the first move.)
   public MachinePlayer(int color) {
-    board = new Board();
-    searchDepth = DEFAULT_DEPTH;
-    this.variableSearchDepth = searchDepth;
-    this.color = color;
-    this.oppColor = Board.flipColor(color);
+    this(color, new SearchOptions());
   }
 
   // Creates a machine player with the given color and search depth.  Color is   
   // either 0 (black) or 1 (white).  (White has the first move.)
   public MachinePlayer(int color, int searchDepth) {
+    this(color, new SearchOptions(searchDepth));
+  }
+
+  // Creates a machine player with the given color and search settings.  Color
+  // is either 0 (black) or 1 (white).  (White has the first move.)
+  public MachinePlayer(int color, SearchOptions options) {
     board = new Board();
-    this.searchDepth = searchDepth;
+    this.searchDepth = options.searchDepth;
     variableSearchDepth = searchDepth;
+    if (options.tableBits > 0) {
+      table = new TranspositionTable(options.tableBits);
+    }
+    if (options.evalCacheBits > 0) {
+      evalCache = new EvalCache(options.evalCacheBits);
+      board.setEvalCache(evalCache);
+    }
+    timeBudget = options.timeBudget;
+    deadline = Long.MAX_VALUE;
+    if (options.threads > 1) {
+      pool = new ForkJoinPool(options.threads);
+    }
+    idleHelpers = new ThreadLocal<MachinePlayer>();
+    threads = options.threads;
+    lazySmp = options.lazySmp;
+    pvs = options.pvs;
+    extensionBudget = options.extensions;
+    reductions = options.reductions;
+    stepDepthDrop = options.stepDepthDrop;
+    nullMove = options.nullMove;
+    futility = options.futility;
+    probCut = options.probCut;
+    if (options.book != null) {
+      book = OpeningBook.open(options.book);
+    }
+    if (options.solverPlies > 0) {
+      solver = new ProofSolver(SOLVER_TABLE_BITS, evalCache);
+    }
+    solverPlies = options.solverPlies;
+    solverBudget = options.solverBudget;
+    ponder = options.ponder;
+    reuse = options.reuse;
+    if (options.playouts > 0) {
+      monteCarlo = new MonteCarloSearch(MONTE_CARLO_NODE_BITS, threads, pool);
+    }
+    playouts = options.playouts;
     this.color = color;
     this.oppColor = Board.flipColor(color);
+    clearOrdering();
+    stats = new SearchStats();
+    board.setStatistics(stats);
+    moveStack = new int[MAX_PLY + 1][];
+    orderStack = new int[MAX_PLY + 1][];
+  }
+
+  // Creates a helper that searches its own "board" on behalf of "parent", as
+  // part of the parallel search at "splitPoint".  Helpers search without a
+  // transposition table unless one is given to them, and have killers and
+  // history of their own.
+  private MachinePlayer(MachinePlayer parent, Board board, SplitPoint splitPoint) {
+    this.board = board;
+    evalCache = parent.evalCache;
+    this.board.setEvalCache(evalCache);
+    moveStack = new int[MAX_PLY + 1][];
+    orderStack = new int[MAX_PLY + 1][];
+    assist(parent, splitPoint);
+  }
+
+  // Sets up helper "this" to search on behalf of "parent", as part of the
+  // parallel search at "splitPoint", with new counters.
+  private void assist(MachinePlayer parent, SplitPoint splitPoint) {
+    searchDepth = parent.searchDepth;
+    variableSearchDepth = parent.variableSearchDepth;
+    deadline = parent.deadline;
+    searchAborted = false;
+    nodes = 0;
+    pool = parent.pool;
+    lazySmp = parent.lazySmp;
+    idleHelpers = parent.idleHelpers;
+    pvs = parent.pvs;
+    extensionBudget = parent.extensionBudget;
+    extended = parent.extended;
+    reduced = parent.reduced;
+    afterNullMove = false;
+    reductions = parent.reductions;
+    nullMove = parent.nullMove;
+    futility = parent.futility;
+    probCut = parent.probCut;
+    this.splitPoint = splitPoint;
+    color = parent.color;
+    oppColor = parent.oppColor;
+    if (killers == null) {
+      // a helper keeps its move ordering from task to task, like a thread searching alone
+      clearOrdering();
+    }
+    stats = new SearchStats();
+    board.setStatistics(stats);
+  }
+
+  // Returns a helper for the current thread, set up to search on behalf of
+  // "this" at "splitPoint": one left idle on this thread, if any, or a new one.
+  private MachinePlayer takeHelper(SplitPoint splitPoint) {
+    MachinePlayer helper = idleHelpers.get();
+    if (helper == null) {
+      return new MachinePlayer(this, new Board(), splitPoint);
+    }
+    idleHelpers.set(helper.nextIdle);
+    helper.assist(this, splitPoint);
+    return helper;
+  }
+
+  // Leaves "helper", taken on the current thread, idle there for the next task.
+  private void releaseHelper(MachinePlayer helper) {
+    helper.nextIdle = idleHelpers.get();
+    idleHelpers.set(helper);
+  }
+
+  // Returns the counters collected by this player's searches.
+  public SearchStats statistics() {
+    return stats;
   }
 
   /**
@@ -46,126 +246,1013 @@ public class MachinePlayer extends Player {
     * moves in validMoves conform to the isValidMove method
     */
   public DList validMoves(int color) {
-    // find add moves:
-    if (board.hasPiecesLeft(color)) {
-      return validMovesHelper(color, null);
-    }
-
-    // now find step moves:
-    DList myPieces = board.getPieces(color);
+    int[] moves = new int[Board.MAX_MOVES];
+    int count = board.generateMoves(color, moves);
     DList validMoves = new DList();
-    for (ListNode node : myPieces) {
-      Piece piece = (Piece) node.item();
-      board.tempRemove(piece);
-      DList newMoves = validMovesHelper(color, piece);
-      validMoves.extend(newMoves);
-      board.tempRestore(piece);
-    }
-    
-    return validMoves;
-  }
-
-  /**
-    * Helper method for validMoves. Takes in the player's color.
-    * Discovers all possible add moves that can be taken.
-    * Also takes in a Piece representing whether or not we want to return step Moves.
-    * If a piece is passed in that parameter, returns step moves instead of add moves.
-    */
-  private DList validMovesHelper (int color, Piece stepPiece) {
-    DList moves = new DList();
-    for(int x = 0; x < board.LENGTH; x++){
-      for(int y = 0; y < board.LENGTH; y++){
-        Move move = new Move(x, y);
-        if(board.isValidAddMove(move, color)){
-          if (stepPiece != null) {
-            // cannot step back onto where the piece originally was
-            if (stepPiece.x == x && stepPiece.y == y) {
-              continue;
-            }
-            move.moveKind = move.STEP;
-            move.x2 = stepPiece.x;
-            move.y2 = stepPiece.y;
-          }
-          moves.insertFront(move);
-        }
-      }
+    for (int i = 0; i < count; i++) {
+      validMoves.insertBack(PackedMove.unpack(moves[i]));
     }
-    return moves;
+    return validMoves;
   }
 
 /**
   * Returns a new intelligent move by "this" player.  Internally records the move (updates
   * the internal game board) as a move by "this" player.
+  * Positions in the opening book are answered from it without searching, and so are
+  * positions where the proof-number solver proves that "this" player can force a network.
   * The search depth is the search depth set by the constructor (default is a depth of 4)
+  * unless a time budget was set, in which case the search deepens one level at a time
+  * and the move comes from the deepest search finished within the budget.
+  * When pondering, the search starts from whatever the ponder left in the table, and once
+  * the move is made a new ponder starts. If the opponent played the reply pondered, the
+  * search goes on from the deepest search the ponder finished instead of starting over.
+  * When reusing, it starts from the table and move ordering the last search left, aged.
   * Returns a Move object.
   */
   public Move chooseMove() {
-    // lower the depth for step pieces
-    if (!board.hasPiecesLeft(color) && variableSearchDepth > STEP_DEPTH_DROP) {
-      variableSearchDepth = searchDepth - STEP_DEPTH_DROP;
+    long start = System.nanoTime();
+    stopPondering();
+    board.setSideToMove(color);
+    Move move = bookMove();
+    if (move == null) {
+      move = solvedMove(start);
     }
-    ScoredMove scoredMove = chooseMoveHelper(color, Board.OPP_WIN, Board.MY_WIN, 1);
-    Move move = scoredMove.move;
+    if (move == null) {
+      move = analyze(start).move;
+    }
+    ponderedDepth = 0;
     board.performValidMove(move, color);
+    startPondering();
     return move;
   }
 
+  /**
+    * Returns the opening book's move for the current board, with "this" player to move,
+    * or null if the book does not hold the position.
+    */
+  private Move bookMove() {
+    if (book == null) {
+      return null;
+    }
+    int index = book.find(board.hashKey());
+    if (index == OpeningBook.MISS) {
+      return null;
+    }
+    Move move = PackedMove.unpack(book.move(index));
+    // a key shared with another position would give a move that may not fit this one
+    if (!board.isValidMove(move, color)) {
+      return null;
+    }
+    return move;
+  }
+
+  /**
+    * Returns a move with which "this" player, to move on the current board, forces a network
+    * within solverPlies plies, or null if the solver disproves it or runs out of budget.
+    * With a time budget, counted from System.nanoTime() "start", the solver also gives up
+    * once it has used its share of the time.
+    * Shorter wins are looked for first, so the move wins as soon as it can.
+    */
+  private Move solvedMove(long start) {
+    if (solver == null) {
+      return null;
+    }
+    long budget = solverBudget;
+    long solverDeadline = Long.MAX_VALUE;
+    if (timeBudget > 0) {
+      solverDeadline = start + timeBudget * 1000000L / SOLVER_TIME_SHARE;
+    }
+    // only the player to move can complete a network on the last ply
+    for (int plies = 1; plies <= solverPlies && budget > 0; plies += 2) {
+      int result = solver.solve(board, plies, budget, solverDeadline);
+      stats.proofExpansions += solver.expansions();
+      budget -= solver.expansions();
+      if (result == ProofSolver.PROVEN) {
+        stats.proofs++;
+        return PackedMove.unpack(solver.provingMove());
+      } else if (result == ProofSolver.UNKNOWN) {
+        return null;
+      }
+    }
+    return null;
+  }
+
+  /**
+    * Searches the current board for "this" player's best move, as chooseMove does but
+    * without the opening book or the solver, and returns it with its score. The board is
+    * left as it was.
+    */
+  ScoredMove analyze() {
+    return analyze(System.nanoTime());
+  }
+
+  /**
+    * Like analyze(), but a time budget counts from System.nanoTime() "start", so that time
+    * spent on the move before the search is taken out of it.
+    */
+  private ScoredMove analyze(long start) {
+    board.setSideToMove(color);
+    if (monteCarlo != null) {
+      return monteCarloMove(start);
+    }
+    if (table != null && !tableWarm) {
+      if (reuse) {
+        table.nextAge();
+      } else {
+        table.clear();
+      }
+    }
+    tableWarm = false;
+    if (reuse) {
+      ageOrdering();
+    } else {
+      clearOrdering();
+    }
+    if (timeBudget > 0) {
+      return iterativeDeepening(start);
+    }
+    // lower the depth for step pieces
+    if (!board.hasPiecesLeft(color) && variableSearchDepth > stepDepthDrop) {
+      variableSearchDepth = searchDepth - stepDepthDrop;
+    }
+    if (ponderedDepth >= variableSearchDepth) {
+      // the ponder has already searched this position as deep
+      return new ScoredMove(ponderedScore, PackedMove.unpack(ponderedMove));
+    }
+    return search(Board.OPP_WIN, Board.MY_WIN);
+  }
+
+  /**
+    * Searches the current board with Monte Carlo tree search, for "playouts" playouts or, if a
+    * time budget was set, as many as it allows from System.nanoTime() "start". The score is
+    * the share of points the move's playouts won, in thousandths.
+    */
+  private ScoredMove monteCarloMove(long start) {
+    long searchStart = System.nanoTime();
+    ScoredMove best;
+    if (timeBudget > 0) {
+      best = monteCarlo.search(board, Integer.MAX_VALUE, start + timeBudget * 1000000L);
+    } else {
+      best = monteCarlo.search(board, playouts, Long.MAX_VALUE);
+    }
+    stats.playouts += monteCarlo.playouts();
+    stats.playoutNanos += System.nanoTime() - searchStart;
+    return best;
+  }
+
+  /**
+    * Searches the current board to depth 1, 2, 3, ... until the time budget runs out.
+    * Each iteration searches the previous iteration's best move first. In PVS mode each
+    * iteration after the first starts with an aspiration window around the previous score,
+    * opening the window up on the side the score falls out of.
+    * The budget counts from System.nanoTime() "start". After a ponder hit, the iterations the
+    * ponder finished are not searched again: the first iteration goes one level deeper than
+    * its deepest, starting from its move and score.
+    * Returns the best move of the deepest finished iteration, with its score; depth 1 always
+    * finishes.
+    */
+  private ScoredMove iterativeDeepening(long start) {
+    long budget = timeBudget * 1000000L;
+    Move best = null;
+    int score = 0;
+    rootFirstMove = PackedMove.NONE;
+    int firstDepth = 1;
+    if (ponderedDepth > 0) {
+      best = PackedMove.unpack(ponderedMove);
+      score = ponderedScore;
+      rootFirstMove = ponderedMove;
+      firstDepth = ponderedDepth + 1;
+      if (score > Board.MY_WIN - MAX_PLY || score < Board.OPP_WIN + MAX_PLY) {
+        firstDepth = MAX_PLY; // the ponder found a forced win or loss
+      }
+    }
+    for (int depth = firstDepth; depth < MAX_PLY; depth++) {
+      variableSearchDepth = depth;
+      deadline = depth == 1 ? Long.MAX_VALUE : start + budget;
+      int alpha = Board.OPP_WIN;
+      int beta = Board.MY_WIN;
+      if (pvs && depth > 1) {
+        alpha = score - ASPIRATION_WINDOW;
+        beta = score + ASPIRATION_WINDOW;
+      }
+      ScoredMove result = search(alpha, beta);
+      while (!searchAborted && ((result.score <= alpha && alpha > Board.OPP_WIN)
+                                || (result.score >= beta && beta < Board.MY_WIN))) {
+        stats.researches++;
+        if (result.score <= alpha) {
+          alpha = Board.OPP_WIN;
+        } else {
+          beta = Board.MY_WIN;
+        }
+        result = search(alpha, beta);
+      }
+      if (searchAborted) {
+        break;
+      }
+      best = result.move;
+      score = result.score;
+      rootFirstMove = PackedMove.pack(best);
+      // stop early if a forced win or loss was found, or the next level cannot finish in time
+      if (result.score > Board.MY_WIN - MAX_PLY || result.score < Board.OPP_WIN + MAX_PLY
+          || System.nanoTime() - start > budget / 2) {
+        break;
+      }
+    }
+    rootFirstMove = PackedMove.NONE;
+    deadline = Long.MAX_VALUE;
+    return new ScoredMove(score, best);
+  }
+
+  /**
+    * Starts pondering, if it is on: a helper on its own thread searches the position after
+    * the reply to "this" player's last move that the table expects, with "this" player to move,
+    * one level deeper at a time up to the depth chooseMove would search (or for at most
+    * PONDER_BUDGETS time budgets), leaving its results in the shared table.
+    * Nothing is pondered once the game is over, or when the table holds no reply.
+    */
+  private void startPondering() {
+    if (!ponder || table == null || board.evaluate(color, false) != 0) {
+      return;
+    }
+    long entry = table.probe(board.hashKey());
+    if (entry == TranspositionTable.MISS) {
+      return;
+    }
+    int reply = TranspositionTable.move(entry);
+    if (reply == PackedMove.NONE || !board.isValidMove(PackedMove.unpack(reply), oppColor)) {
+      return;
+    }
+    Board position = board.copy();
+    position.performValidMove(reply, oppColor);
+    if (position.evaluate(color, false) != 0) {
+      return;
+    }
+    final MachinePlayer helper = new MachinePlayer(this, position, new SplitPoint(null));
+    helper.table = table;
+    // the ponder thread is not in the pool, so it searches alone rather than split
+    helper.pool = null;
+    final int maxDepth;
+    if (timeBudget > 0) {
+      maxDepth = MAX_PLY - 1;
+      helper.deadline = System.nanoTime() + PONDER_BUDGETS * timeBudget * 1000000L;
+    } else if (!position.hasPiecesLeft(color) && variableSearchDepth > stepDepthDrop) {
+      maxDepth = searchDepth - stepDepthDrop;
+    } else {
+      maxDepth = variableSearchDepth;
+    }
+    ponderer = helper;
+    ponderMove = reply;
+    table.nextAge();
+    tableWarm = true;
+    ponderThread = new Thread(new Runnable() {
+      public void run() {
+        helper.ponder(maxDepth);
+      }
+    });
+    ponderThread.setDaemon(true);
+    ponderThread.start();
+  }
+
+  /**
+    * Stops the ponder, if one is running, and waits for its thread to finish. Whatever it
+    * found stays in the table, and its counters are added to this player's. After a ponder
+    * hit, its deepest finished search is kept for the next search to go on from.
+    */
+  private void stopPondering() {
+    if (ponderThread == null) {
+      return;
+    }
+    ponderer.splitPoint.cutoff = true;
+    boolean interrupted = false;
+    while (ponderThread.isAlive()) {
+      try {
+        ponderThread.join();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    stats.add(ponderer.stats);
+    if (ponderHit) {
+      ponderedDepth = ponderer.ponderedDepth;
+      ponderedMove = ponderer.ponderedMove;
+      ponderedScore = ponderer.ponderedScore;
+    }
+    ponderHit = false;
+    ponderThread = null;
+    ponderer = null;
+  }
+
+  /**
+    * For a pondering helper: searches its board to depth 1, 2, 3, ... up to "maxDepth",
+    * until a forced win or loss is found or the search is stopped. The depth, best move and
+    * score of the deepest search finished are left in ponderedDepth, ponderedMove and
+    * ponderedScore.
+    */
+  private void ponder(int maxDepth) {
+    for (int depth = 1; depth <= maxDepth; depth++) {
+      variableSearchDepth = depth;
+      rootFirstMove = depth == 1 ? PackedMove.NONE : ponderedMove;
+      int score = search(Board.OPP_WIN, Board.MY_WIN).score;
+      if (searchAborted || splitPoint.cancelled()) {
+        return;
+      }
+      ponderedDepth = depth;
+      ponderedMove = rootBestMove;
+      ponderedScore = score;
+      if (score > Board.MY_WIN - MAX_PLY || score < Board.OPP_WIN + MAX_PLY) {
+        return;
+      }
+    }
+  }
+
+  /**
+    * Runs one alpha-beta search of the current board to variableSearchDepth, with the window
+    * ("alpha", "beta"). If the score falls outside the window, the move returned is not to be used.
+    * This is the only place the search builds a Move object: the best move at the root.
+    */
+  private ScoredMove search(final int alpha, final int beta) {
+    nodes = 0;
+    searchAborted = false;
+    int score;
+    if (pool != null && lazySmp) {
+      score = lazySearch(alpha, beta);
+    } else if (pool != null) {
+      // run the root in the pool, so that the positions it splits are forked there
+      score = pool.invoke(new RecursiveTask<Integer>() {
+        protected Integer compute() {
+          return chooseMoveHelper(color, alpha, beta, 1);
+        }
+      });
+    } else {
+      score = chooseMoveHelper(color, alpha, beta, 1);
+    }
+    return new ScoredMove(score, PackedMove.unpack(rootBestMove));
+  }
+
+  /**
+    * Lazy SMP: helper threads search the same board as this one, each on its own copy,
+    * sharing nothing but the transposition table. Odd-numbered helpers search one level deeper,
+    * and each helper starts at a different root move, so they fill the table with results this
+    * search can use. Returns this thread's score, searched with the window ("alpha", "beta"),
+    * once it finishes; the helpers are then stopped, and their counters added to this one's.
+    */
+  private int lazySearch(int alpha, int beta) {
+    SplitPoint stop = new SplitPoint(null);
+    MachinePlayer[] helpers = new MachinePlayer[threads - 1];
+    DList tasks = new DList();
+    for (int i = 1; i < threads; i++) {
+      final MachinePlayer helper = new MachinePlayer(this, board.copy(), stop);
+      helper.table = table;
+      helpers[i - 1] = helper;
+      helper.variableSearchDepth = Math.min(variableSearchDepth + i % 2, MAX_PLY - 1);
+      helper.rootRotation = i;
+      tasks.insertBack(pool.submit(new Runnable() {
+        public void run() {
+          helper.chooseMoveHelper(color, Board.OPP_WIN, Board.MY_WIN, 1);
+        }
+      }));
+    }
+    int score = chooseMoveHelper(color, alpha, beta, 1);
+    stop.cutoff = true;
+    for (ListNode node : tasks) {
+      ((ForkJoinTask<?>) node.item()).join();
+    }
+    for (int i = 0; i < helpers.length; i++) {
+      stats.add(helpers[i].stats);
+    }
+    return score;
+  }
+
+  /**
+    * Checks whether the current search should give up: either a timed search has used up its
+    * budget, or a helper's work was made useless by a cutoff at its split point.
+    * Only looks at the clock every CLOCK_CHECK_NODES calls. Once the search has run out of
+    * time, it keeps returning true until the next search.
+    */
+  private boolean shouldStop() {
+    if (!searchAborted && (nodes & (CLOCK_CHECK_NODES - 1)) == 0 && System.nanoTime() > deadline) {
+      searchAborted = true;
+    }
+    return searchAborted || (splitPoint != null && splitPoint.cancelled());
+  }
+
   /**
     * This helper method is where minimax actually occurs.
     * "side" keeps track of the player from whose perspective minimax is operating
     * depth represents the current depth (1 = considering moves the MachinePlayer can make)
-    * 
+    * Returns the score of the current board; at depth 1 the best move is left in rootBestMove.
+    * Positions already in the transposition table are not searched again,
+    * and every searched position is recorded there.
+    * Moves are generated into moveStack, so nothing is allocated per position.
+    * With threat extensions on, past the search depth, a player to move who can complete a
+    * network with one move is scored as winning on the next level, and a position where the
+    * other player could is searched one level deeper, within the extension budget of the line.
+    * In the step phase, when the other player has no such threat, the search may pass
+    * (null move pruning) and search late moves less deep (late move reductions).
+    * Far from the leaves, a shallower search may predict a cutoff (ProbCut); next to them,
+    * moves that cannot bring the score back inside the window are skipped (futility pruning).
     */
-  private ScoredMove chooseMoveHelper(int side, int alpha, int beta, int depth) {
-    DList validMoves = validMoves(side);
-
-    if (depth > variableSearchDepth) {
-      return new ScoredMove(board.evaluate(color, true) / depth, (Move) validMoves.front().item());
+  private int chooseMoveHelper(int side, int alpha, int beta, int depth) {
+    nodes++;
+    stats.nodes++;
+    boolean nullMoveAllowed = !afterNullMove;
+    afterNullMove = false;
+    if (depth > variableSearchDepth + extended - reduced) {
+      int score = board.evaluate(color, true);
+      if (score == Board.MY_WIN || score == Board.OPP_WIN || extensionBudget == 0) {
+        return scoreAtDepth(score, depth);
+      }
+      // a network the player to move can complete is theirs on the next level
+      if (board.hasThreat(side)) {
+        return scoreAtDepth(side == color ? Board.MY_WIN : Board.OPP_WIN, depth + 1);
+      }
+      // one the other player can complete must be stopped: search the position again,
+      // now as one above the leaves
+      if (extended < extensionBudget && depth < MAX_PLY && board.hasThreat(Board.flipColor(side))) {
+        extended++;
+        stats.extensions++;
+        int extendedScore = chooseMoveHelper(side, alpha, beta, depth);
+        extended--;
+        return extendedScore;
+      }
+      return scoreAtDepth(score, depth);
     }
 
     // check for win
     int possibleWin = board.evaluate(color, false);
-    if (possibleWin != 0) {
-      return new ScoredMove(possibleWin / depth, (Move) validMoves.front().item());
+    if (possibleWin != 0 && depth > 1) {
+      return scoreAtDepth(possibleWin, depth);
+    }
+
+    int remaining = variableSearchDepth + extended - reduced - depth + 1;
+    long key = board.hashKey();
+    int tableMove = PackedMove.NONE;
+    if (table != null) {
+      long entry = table.probe(key);
+      if (entry != TranspositionTable.MISS) {
+        tableMove = TranspositionTable.move(entry);
+      }
+      if (entry != TranspositionTable.MISS && TranspositionTable.depth(entry) >= remaining
+          && depth > 1) {
+        int score = fromTableScore(TranspositionTable.score(entry), depth);
+        int bound = TranspositionTable.bound(entry);
+        if (bound == TranspositionTable.EXACT) {
+          return score;
+        } else if (bound == TranspositionTable.LOWER_BOUND && score > alpha) {
+          alpha = score;
+        } else if (bound == TranspositionTable.UPPER_BOUND && score < beta) {
+          beta = score;
+        }
+        if (alpha >= beta) {
+          return score;
+        }
+      }
+    }
+    int windowAlpha = alpha;
+    int windowBeta = beta;
+
+    boolean pruning = !board.hasPiecesLeft(side) && depth > 1
+        && ((reductions && remaining >= REDUCTION_MIN_DEPTH)
+            || (nullMove && nullMoveAllowed && remaining >= NULL_MOVE_MIN_DEPTH))
+        && !board.hasThreat(Board.flipColor(side));
+    if (pruning && nullMove && nullMoveAllowed && remaining >= NULL_MOVE_MIN_DEPTH) {
+      // pass: if the other player cannot get past the bound even so, no move will let it
+      int score = searchNullMove(side, alpha, beta, depth + 1);
+      if (side == color && score >= beta && !shouldStop()) {
+        stats.nullMoveCutoffs++;
+        return beta;
+      } else if (side == oppColor && score <= alpha && !shouldStop()) {
+        stats.nullMoveCutoffs++;
+        return alpha;
+      }
+    }
+    boolean reduce = pruning && reductions && remaining >= REDUCTION_MIN_DEPTH;
+    if (probCut && depth > 1 && remaining >= PROBCUT_MIN_DEPTH) {
+      int bound = side == color ? beta + PROBCUT_MARGIN : alpha - PROBCUT_MARGIN;
+      if (bound < Board.MY_WIN - MAX_PLY && bound > Board.OPP_WIN + MAX_PLY) {
+        int score = searchProbCut(side, bound, depth, nullMoveAllowed);
+        if (side == color && score >= bound && !shouldStop()) {
+          stats.probCuts++;
+          return beta;
+        } else if (side == oppColor && score <= bound && !shouldStop()) {
+          stats.probCuts++;
+          return alpha;
+        }
+      }
+    }
+    // futility: even the best a move and the replies left can add to the board's score
+    // does not get past the bound; the player to move must not be able to win outright
+    boolean futile = false;
+    if (futility && depth > 1 && remaining <= FUTILITY_MAX_DEPTH && !board.hasThreat(side)) {
+      int score = board.evaluate(color, true);
+      int margin = remaining * FUTILITY_MARGIN;
+      futile = side == color ? score + margin <= alpha : score - margin >= beta;
     }
 
-    ScoredMove replyBest;
-    ScoredMove myBest = new ScoredMove();
+    int[] moves = movesAt(depth);
+    int count = board.generateMoves(side, moves);
+    orderMoves(moves, count, side, depth, tableMove);
+    if (depth == 1 && rootRotation > 0) {
+      rotate(moves, count, rootRotation);
+    }
+    if (depth == 1 && rootFirstMove != PackedMove.NONE) {
+      moveToFront(moves, count, rootFirstMove);
+    }
+    int bestScore;
     if (side == color) {
-      myBest.score = alpha;
+      bestScore = alpha;
     } else {
-      myBest.score = beta;
+      bestScore = beta;
     }
-    myBest.move = (Move) validMoves.front().item();
-    for (ListNode node : validMoves) {
-      Move move = (Move) node.item();
+    int bestMove = moves[0];
+    for (int i = 0; i < count; i++) {
+      int move = moves[i];
       board.performValidMove(move, side);
-      replyBest = chooseMoveHelper(Board.flipColor(side), alpha, beta, depth + 1);
+      // a move that leaves its player a network to complete is worth more than its pairs
+      if (futile && i > 0 && !(extensionBudget > 0 && board.mayHaveThreat(side))) {
+        board.undoMove(move);
+        stats.futilityPruned++;
+        continue;
+      }
+      int replyScore;
+      if (i == 0) {
+        replyScore = chooseMoveHelper(Board.flipColor(side), alpha, beta, depth + 1);
+      } else if (reduce && i >= REDUCTION_FIRST_MOVE) {
+        int reduction = i >= DOUBLE_REDUCTION_FIRST_MOVE && remaining > REDUCTION_MIN_DEPTH ? 2 : 1;
+        replyScore = searchReducedMove(side, alpha, beta, depth + 1, reduction);
+      } else {
+        replyScore = searchLaterMove(side, alpha, beta, depth + 1);
+      }
       board.undoMove(move);
-      if (side == color && replyBest.score > myBest.score) {
-        myBest.move = move;
-        myBest.score = replyBest.score;
-        alpha = replyBest.score;
-      } else if (side == oppColor && replyBest.score < myBest.score) {
-        myBest.move = move;
-        myBest.score = replyBest.score;
-        beta = replyBest.score;
+      if (shouldStop()) {
+        break;
+      }
+      if (side == color && replyScore > bestScore) {
+        bestMove = move;
+        bestScore = replyScore;
+        alpha = replyScore;
+      } else if (side == oppColor && replyScore < bestScore) {
+        bestMove = move;
+        bestScore = replyScore;
+        beta = replyScore;
       }
       if (alpha >= beta) {
-        return myBest;
+        recordCutoff(move, side, depth, remaining, i == 0);
+        break;
+      }
+      // Young Brothers Wait: the eldest brother has set the bounds, search the others in parallel
+      if (pool != null && !lazySmp && remaining >= SPLIT_MIN_DEPTH && i + 1 < count) {
+        int[] best = { bestScore, bestMove };
+        searchSiblings(moves, i + 1, count, side, alpha, beta, depth, remaining, best);
+        bestScore = best[0];
+        bestMove = best[1];
+        break;
+      }
+    }
+    if (depth == 1) {
+      rootBestMove = bestMove;
+    }
+    if (shouldStop()) {
+      return bestScore;
+    }
+
+    if (table != null) {
+      int bound = TranspositionTable.EXACT;
+      if (bestScore <= windowAlpha) {
+        bound = TranspositionTable.UPPER_BOUND;
+      } else if (bestScore >= windowBeta) {
+        bound = TranspositionTable.LOWER_BOUND;
+      }
+      table.store(key, toTableScore(bestScore, depth), remaining, bound, bestMove);
+    }
+    return bestScore;
+  }
+
+  /**
+    * Returns the score of the board after a move by "side" that was not the first one searched,
+    * to be searched from level "depth" with the window ("alpha", "beta").
+    * In PVS mode, first checks with a null window whether the move is better for "side" than
+    * the best move so far, and only searches it with the whole window if it is.
+    */
+  private int searchLaterMove(int side, int alpha, int beta, int depth) {
+    int reply = Board.flipColor(side);
+    if (!pvs) {
+      return chooseMoveHelper(reply, alpha, beta, depth);
+    }
+    int score;
+    if (side == color) {
+      score = chooseMoveHelper(reply, alpha, alpha + 1, depth);
+    } else {
+      score = chooseMoveHelper(reply, beta - 1, beta, depth);
+    }
+    if (score > alpha && score < beta && !shouldStop()) {
+      stats.researches++;
+      score = chooseMoveHelper(reply, alpha, beta, depth);
+    }
+    return score;
+  }
+
+  /**
+    * Returns the score of the board after a late move by "side", to be searched from level
+    * "depth" with the window ("alpha", "beta"). The move is first searched "reduction" levels
+    * less deep with a null window, and only searched in full, as by searchLaterMove, if it
+    * then looks better for "side" than the best move so far.
+    */
+  private int searchReducedMove(int side, int alpha, int beta, int depth, int reduction) {
+    int reply = Board.flipColor(side);
+    reduced += reduction;
+    int score;
+    if (side == color) {
+      score = chooseMoveHelper(reply, alpha, alpha + 1, depth);
+    } else {
+      score = chooseMoveHelper(reply, beta - 1, beta, depth);
+    }
+    reduced -= reduction;
+    if ((side == color ? score > alpha : score < beta) && !shouldStop()) {
+      stats.researches++;
+      score = searchLaterMove(side, alpha, beta, depth);
+    }
+    return score;
+  }
+
+  /**
+    * Returns the score of the board if "side" passed instead of moving, searched from level
+    * "depth" NULL_MOVE_REDUCTION levels less deep, with a null window at the bound that "side"
+    * has to get past for a cutoff. The board is left as it was.
+    */
+  private int searchNullMove(int side, int alpha, int beta, int depth) {
+    int reply = Board.flipColor(side);
+    board.setSideToMove(reply);
+    afterNullMove = true;
+    reduced += NULL_MOVE_REDUCTION;
+    int score;
+    if (side == color) {
+      score = chooseMoveHelper(reply, beta - 1, beta, depth);
+    } else {
+      score = chooseMoveHelper(reply, alpha, alpha + 1, depth);
+    }
+    reduced -= NULL_MOVE_REDUCTION;
+    afterNullMove = false;
+    board.setSideToMove(side);
+    return score;
+  }
+
+  /**
+    * Returns the score of the board, with "side" to move at level "depth", searched
+    * PROBCUT_REDUCTION levels less deep with a null window at "bound". "nullMoveAllowed" tells
+    * whether the position may be searched with a pass, as it may not right after one.
+    */
+  private int searchProbCut(int side, int bound, int depth, boolean nullMoveAllowed) {
+    reduced += PROBCUT_REDUCTION;
+    afterNullMove = !nullMoveAllowed;
+    int score;
+    if (side == color) {
+      score = chooseMoveHelper(side, bound - 1, bound, depth);
+    } else {
+      score = chooseMoveHelper(side, bound, bound + 1, depth);
+    }
+    afterNullMove = false;
+    reduced -= PROBCUT_REDUCTION;
+    return score;
+  }
+
+  /**
+    * Returns the row of moveStack for level "depth", allocating it the first time.
+    */
+  private int[] movesAt(int depth) {
+    if (moveStack[depth] == null) {
+      moveStack[depth] = new int[Board.MAX_MOVES];
+      orderStack[depth] = new int[Board.MAX_MOVES];
+    }
+    return moveStack[depth];
+  }
+
+  /**
+    * Searches the moves from index "first" up to "count" of "moves" in parallel, with the bounds
+    * "alpha" and "beta" set by the moves before them. The board is copied once for all of them;
+    * each task copies it again onto the board of its thread's helper only when it starts.
+    * "best" holds the best score and packed move so far, and is updated with the results in
+    * move order, exactly as the serial loop in chooseMoveHelper would, so the move chosen is
+    * the same, as long as the serial search does not reuse the table of an earlier turn
+    * (helpers search without one). A cutoff cancels the brothers that are still being
+    * searched. Every task is finished or cancelled before this returns, so no helper searches
+    * past its split point.
+    */
+  private void searchSiblings(int[] moves, int first, int count, int side, int alpha, int beta,
+                              int depth, int remaining, int[] best) {
+    SplitPoint split = new SplitPoint(splitPoint);
+    Board snapshot = board.copy();
+    SiblingSearch[] tasks = new SiblingSearch[count - first];
+    // forked last first: this thread takes the brothers in move order from the top of its queue,
+    // and idle threads steal the least promising ones from the bottom
+    for (int i = count - 1; i >= first; i--) {
+      tasks[i - first] = new SiblingSearch(this, snapshot, moves[i], side, alpha, beta, depth + 1,
+                                           split);
+      tasks[i - first].fork();
+    }
+    for (int i = 0; i < tasks.length; i++) {
+      SiblingSearch task = tasks[i];
+      int replyScore = task.join();
+      stats.add(task.stats);
+      if (task.timedOut) {
+        searchAborted = true;
+      }
+      if (shouldStop()) {
+        split.cutoff = true;
+        finishSiblings(tasks, i + 1);
+        return;
+      }
+      if (side == color && replyScore > best[0]) {
+        best[0] = replyScore;
+        best[1] = task.move;
+      } else if (side == oppColor && replyScore < best[0]) {
+        best[0] = replyScore;
+        best[1] = task.move;
+      }
+      if ((side == color && best[0] >= beta) || (side == oppColor && best[0] <= alpha)) {
+        recordCutoff(task.move, side, depth, remaining, false);
+        split.cutoff = true;
+        finishSiblings(tasks, i + 1);
+        return;
+      }
+    }
+  }
+
+  /**
+    * Cancels the tasks of "tasks" from index "first" on that have not started, and waits for
+    * the others, which stop soon once their split point is cut off. Their counters are added
+    * to this player's.
+    */
+  private void finishSiblings(SiblingSearch[] tasks, int first) {
+    for (int i = first; i < tasks.length; i++) {
+      tasks[i].cancel(false);
+    }
+    for (int i = first; i < tasks.length; i++) {
+      tasks[i].quietlyJoin();
+      if (tasks[i].stats != null) {
+        stats.add(tasks[i].stats);
+      }
+    }
+  }
+
+  /**
+    * Sorts the first "count" packed moves of "moves" into the order they should be searched at
+    * level "depth" by the player represented by int "side": the transposition table's best move
+    * "tableMove" first, then the two killer moves of this level, then the others by decreasing
+    * history score. Moves that tie keep their order.
+    */
+  private void orderMoves(int[] moves, int count, int side, int depth, int tableMove) {
+    int[] order = orderStack[depth];
+    for (int i = 0; i < count; i++) {
+      int move = moves[i];
+      int key;
+      if (move == tableMove) {
+        key = TABLE_MOVE_ORDER;
+      } else if (move == killers[depth][0]) {
+        key = KILLER_ORDER;
+      } else if (move == killers[depth][1]) {
+        key = KILLER_ORDER - 1;
+      } else {
+        key = history[historyIndex(side, move)];
+      }
+      // insertion sort: stable, and quick on the mostly-tied keys
+      int j = i;
+      while (j > 0 && order[j - 1] < key) {
+        order[j] = order[j - 1];
+        moves[j] = moves[j - 1];
+        j--;
+      }
+      order[j] = key;
+      moves[j] = move;
+    }
+  }
+
+  /**
+    * Records that the packed move "packed" by the player represented by int "side" caused a
+    * cutoff at level "depth", "remaining" levels above the leaves: it becomes a killer move for the level,
+    * and its history score grows with the size of the subtree it cut off.
+    * "firstMove" tells whether it was the first move searched there.
+    */
+  private void recordCutoff(int packed, int side, int depth, int remaining, boolean firstMove) {
+    stats.cutoffs++;
+    if (firstMove) {
+      stats.firstMoveCutoffs++;
+    }
+    if (killers[depth][0] != packed) {
+      killers[depth][1] = killers[depth][0];
+      killers[depth][0] = packed;
+    }
+    int index = historyIndex(side, packed);
+    history[index] += remaining * remaining;
+    if (history[index] > HISTORY_LIMIT) {
+      for (int i = 0; i < history.length; i++) {
+        history[i] /= 2;
+      }
+    }
+  }
+
+  /**
+    * Returns the index in "history" of the packed move "packed" by the player "side".
+    * ADD moves count as coming from an extra square past the last one.
+    */
+  private static int historyIndex(int side, int packed) {
+    int from = PackedMove.kind(packed) == Move.STEP ? PackedMove.from(packed) : Board.SQUARES;
+    return (side * (Board.SQUARES + 1) + from) * Board.SQUARES + PackedMove.to(packed);
+  }
+
+  /**
+    * Forgets the killer moves and history scores of earlier searches.
+    */
+  private void clearOrdering() {
+    killers = new int[MAX_PLY + 1][2];
+    history = new int[2 * (Board.SQUARES + 1) * Board.SQUARES];
+  }
+
+  /**
+    * Ages the move ordering for a search two levels below the last one's root (after a move
+    * by each player): the killers move up two levels, so that they stay with the same positions
+    * of the game, and the history counts are halved, so that new cutoffs soon outweigh old ones.
+    */
+  private void ageOrdering() {
+    System.arraycopy(killers, 2, killers, 0, MAX_PLY - 1);
+    killers[MAX_PLY - 1] = new int[2];
+    killers[MAX_PLY] = new int[2];
+    for (int i = 0; i < history.length; i++) {
+      history[i] /= 2;
+    }
+  }
+
+  /**
+    * Rotates the first "count" moves of "moves" left by "by" places (modulo "count").
+    */
+  private static void rotate(int[] moves, int count, int by) {
+    if (count == 0) {
+      return;
+    }
+    by %= count;
+    reverse(moves, 0, by);
+    reverse(moves, by, count);
+    reverse(moves, 0, count);
+  }
+
+  /**
+    * Reverses the moves of "moves" from index "from" up to "to".
+    */
+  private static void reverse(int[] moves, int from, int to) {
+    for (to--; from < to; from++, to--) {
+      int move = moves[from];
+      moves[from] = moves[to];
+      moves[to] = move;
+    }
+  }
+
+  /**
+    * Moves the packed move "first" to the front of the first "count" moves of "moves",
+    * keeping the others in order. Does nothing if "first" is not among them.
+    */
+  private static void moveToFront(int[] moves, int count, int first) {
+    for (int i = 0; i < count; i++) {
+      if (moves[i] == first) {
+        for (; i > 0; i--) {
+          moves[i] = moves[i - 1];
+        }
+        moves[0] = first;
+        return;
+      }
+    }
+  }
+
+  /**
+    * Converts the evaluation "score" of a position found at level "depth" into a search score.
+    * Wins and losses are moved toward zero by the depth, so that quicker wins and slower losses
+    * score better; other scores are unchanged.
+    */
+  private static int scoreAtDepth(int score, int depth) {
+    if (score == Board.MY_WIN) {
+      return Board.MY_WIN - depth;
+    }
+    if (score == Board.OPP_WIN) {
+      return Board.OPP_WIN + depth;
+    }
+    return score;
+  }
+
+  /**
+    * Converts a search "score" at level "depth" into a transposition table score.
+    * Win and loss scores count their depth from the root; the table counts it from the
+    * position itself, so the same entry is valid wherever the position is reached.
+    */
+  private static int toTableScore(int score, int depth) {
+    if (score > Board.MY_WIN - MAX_PLY) {
+      return Math.min(score + depth, Board.MY_WIN);
+    }
+    if (score < Board.OPP_WIN + MAX_PLY) {
+      return Math.max(score - depth, Board.OPP_WIN);
+    }
+    return score;
+  }
+
+  /**
+    * Reverses toTableScore: converts a table "score" back into a search score at level "depth".
+    */
+  private static int fromTableScore(int score, int depth) {
+    if (score > Board.MY_WIN - MAX_PLY) {
+      return score - depth;
+    }
+    if (score < Board.OPP_WIN + MAX_PLY) {
+      return score + depth;
+    }
+    return score;
+  }
+
+  /**
+    * A position where a parallel search has split its moves between threads.
+    * Once a cutoff makes the remaining moves useless, every helper searching below it stops.
+    */
+  private static class SplitPoint {
+    private SplitPoint parent;
+    private volatile boolean cutoff;
+
+    SplitPoint(SplitPoint parent) {
+      this.parent = parent;
+    }
+
+    /**
+      * Returns true if this split point or any split point above it has been cut off
+      */
+    boolean cancelled() {
+      for (SplitPoint split = this; split != null; split = split.parent) {
+        if (split.cutoff) {
+          return true;
+        }
       }
+      return false;
+    }
+  }
+
+  /**
+    * Searches one move of a split position. When it starts, it takes a helper idle on its
+    * thread and copies "snapshot", the position at the split point, onto the helper's board;
+    * a task cancelled before it starts copies nothing.
+    */
+  private static class SiblingSearch extends RecursiveTask<Integer> {
+    private static final long serialVersionUID = 1L;
+
+    private MachinePlayer parent;
+    private Board snapshot;
+    private SplitPoint split;
+    private int move;
+    private int side;
+    private int alpha;
+    private int beta;
+    private int depth;
+    private boolean timedOut;
+    private SearchStats stats;  // the counters of the helper's search, once done
+
+    SiblingSearch(MachinePlayer parent, Board snapshot, int move, int side, int alpha, int beta,
+                  int depth, SplitPoint split) {
+      this.parent = parent;
+      this.snapshot = snapshot;
+      this.split = split;
+      this.move = move;
+      this.side = side;
+      this.alpha = alpha;
+      this.beta = beta;
+      this.depth = depth;
+    }
+
+    protected Integer compute() {
+      MachinePlayer helper = parent.takeHelper(split);
+      helper.board.copyFrom(snapshot);
+      helper.board.performValidMove(move, side);
+      int replyScore = helper.searchLaterMove(side, alpha, beta, depth);
+      timedOut = helper.searchAborted;
+      stats = helper.stats;
+      parent.releaseHelper(helper);
+      return replyScore;
     }
-    return myBest;
   }
 
   // If the Move m is legal, records the move as a move by the opponent
   // (updates the internal game board) and returns true.  If the move is
   // illegal, returns false without modifying the internal state of "this"
   // player.  This method allows your opponents to inform you of their moves.
+  // A ponder on another reply is stopped; one on this reply goes on until
+  // the next chooseMove.
   public boolean opponentMove(Move m) {
     if (!board.isValidMove(m, oppColor)) {
       return false;
     }
+    if (ponderThread != null && PackedMove.pack(m) == ponderMove) {
+      stats.ponderHits++;
+      ponderHit = true;
+    } else if (ponderThread != null) {
+      stats.ponderMisses++;
+      stopPondering();
+    }
     board.performValidMove(m, oppColor);
     return true;
   }
@@ -179,6 +1266,8 @@ public class MachinePlayer extends Player {
     if (!board.isValidMove(m, color)) {
       return false;
     }
+    stopPondering();
+    ponderedDepth = 0;
     board.performValidMove(m, color);
     return true;
   }
@@ -292,6 +1381,299 @@ public class MachinePlayer extends Player {
     print(p.board);
     m = p.chooseMove();
     expect(new Move(1,3), m);
+
+    // The transposition table must not change the move chosen, when each search starts
+    // from an empty one; so the searches compared below do not reuse anything
+    SearchOptions fresh = new SearchOptions(depth);
+    fresh.reuse = false;
+    SearchOptions noTable = new SearchOptions(depth);
+    noTable.tableBits = 0;
+    noTable.reuse = false;
+    p = new MachinePlayer(Board.WHITE, fresh);
+    o = new MachinePlayer(Board.WHITE, noTable);
+    for (int i = 0; i < 6; i++) {
+      m = p.chooseMove();
+      expect(m, o.chooseMove());
+      Move reply = (Move) p.validMoves(Board.BLACK).back().item();
+      p.opponentMove(reply);
+      o.opponentMove(reply);
+    }
+    expect(new Move(3, 4, 1, 2), PackedMove.unpack(PackedMove.pack(new Move(3, 4, 1, 2))));
+
+    // A parallel search must choose the same move as the serial one, into the step phase,
+    // where helpers take up positions left on their boards by earlier tasks
+    SearchOptions parallel = new SearchOptions(depth);
+    parallel.threads = 4;
+    parallel.reuse = false;
+    p = new MachinePlayer(Board.WHITE, fresh);
+    o = new MachinePlayer(Board.WHITE, parallel);
+    MachinePlayer opponent = new MachinePlayer(Board.BLACK, fresh);
+    for (int i = 0; i < 14 && p.board.evaluate(Board.WHITE, false) == 0; i++) {
+      m = p.chooseMove();
+      expect(m, o.chooseMove());
+      opponent.opponentMove(m);
+      if (p.board.evaluate(Board.WHITE, false) != 0) {
+        break;
+      }
+      Move reply = opponent.chooseMove();
+      p.opponentMove(reply);
+      o.opponentMove(reply);
+    }
+    expect(false, p.board.hasPiecesLeft(Board.WHITE));
+
+    // Principal Variation Search finds the same scores, so it must choose the same move
+    SearchOptions principal = new SearchOptions(depth);
+    principal.pvs = true;
+    principal.reuse = false;
+    p = new MachinePlayer(Board.WHITE, fresh);
+    o = new MachinePlayer(Board.WHITE, principal);
+    for (int i = 0; i < 6; i++) {
+      m = p.chooseMove();
+      expect(m, o.chooseMove());
+      Move reply = (Move) p.validMoves(Board.BLACK).back().item();
+      p.opponentMove(reply);
+      o.opponentMove(reply);
+    }
+
+    // Futility pruning skips only moves that cannot change the score, so it must choose the
+    // same move; ProbCut may not, but its move must be legal
+    SearchOptions futile = new SearchOptions(depth);
+    futile.futility = true;
+    futile.reuse = false;
+    SearchOptions probable = new SearchOptions(depth + 1);
+    probable.probCut = true;
+    probable.reuse = false;
+    p = new MachinePlayer(Board.WHITE, fresh);
+    o = new MachinePlayer(Board.WHITE, futile);
+    MachinePlayer q = new MachinePlayer(Board.WHITE, probable);
+    for (int i = 0; i < 6; i++) {
+      m = p.chooseMove();
+      expect(m, o.chooseMove());
+      expect(false, q.forceMove(q.chooseMove()));
+      Move reply = (Move) p.validMoves(Board.BLACK).front().item();
+      p.opponentMove(reply);
+      o.opponentMove(reply);
+      expect(true, q.opponentMove((Move) q.validMoves(Board.BLACK).front().item()));
+    }
+
+    // White can complete a network with its next move, past a depth 1 search: only a threat
+    // extension lets black see that it must block at (4, 4)
+    SearchOptions shallow = new SearchOptions(1);
+    for (int extensions = 0; extensions <= 1; extensions++) {
+      shallow.extensions = extensions;
+      p = new MachinePlayer(Board.BLACK, shallow);
+      int[][] white = { { 0, 6 }, { 4, 1 }, { 7, 5 }, { 6, 4 }, { 6, 2 }, { 4, 6 }, { 1, 4 } };
+      int[][] black = { { 2, 4 }, { 3, 1 }, { 6, 0 }, { 1, 5 }, { 5, 1 }, { 4, 7 } };
+      for (int i = 0; i < white.length; i++) {
+        p.opponentMove(new Move(white[i][0], white[i][1]));
+        if (i < black.length) {
+          p.forceMove(new Move(black[i][0], black[i][1]));
+        }
+      }
+      m = p.chooseMove();
+      expect(extensions == 1, m.toString().equals(new Move(4, 4).toString()));
+    }
+
+    // In the step phase, null move pruning and late move reductions at the full depth
+    SearchOptions pruned = new SearchOptions(3);
+    pruned.stepDepthDrop = 0;
+    pruned.reductions = true;
+    pruned.nullMove = true;
+    p = new MachinePlayer(Board.WHITE, pruned);
+    while (p.board.hasPiecesLeft(Board.BLACK)) {
+      p.forceMove((Move) p.validMoves(Board.WHITE).back().item());
+      p.opponentMove((Move) p.validMoves(Board.BLACK).front().item());
+    }
+    m = p.chooseMove();
+    expect(Move.STEP, m.moveKind);
+    expect(false, p.forceMove(m));
+
+    // Opening book: its move is played without a search, unless it does not fit the board
+    try {
+      java.io.File file = java.io.File.createTempFile("opening", ".book");
+      file.deleteOnExit();
+      Board opening = new Board();
+      opening.setSideToMove(Board.WHITE);
+      java.util.TreeMap<Long, int[]> entries = new java.util.TreeMap<Long, int[]>();
+      entries.put(opening.hashKey(), new int[] { PackedMove.pack(new Move(3, 3)), 0 });
+      opening.performValidMove(new Move(3, 3), Board.WHITE);
+      entries.put(opening.hashKey(), new int[] { PackedMove.pack(new Move(3, 3)), 0 });
+      OpeningBook.write(file.getPath(), entries);
+      SearchOptions booked = new SearchOptions(depth);
+      booked.book = file.getPath();
+      p = new MachinePlayer(Board.WHITE, booked);
+      o = new MachinePlayer(Board.BLACK, booked);
+      m = p.chooseMove();
+      expect(true, m.toString().equals(new Move(3, 3).toString()));
+      o.opponentMove(m);
+      m = o.chooseMove(); // (3, 3) is taken, so black searches
+      expect(false, m.toString().equals(new Move(3, 3).toString()));
+      expect(true, OpeningBook.open(file.getPath()) == OpeningBook.open(file.getPath()));
+      expect(2, OpeningBook.open(file.getPath()).size());
+      // a book missing when first looked for is found once it is written
+      String later = file.getPath() + ".later";
+      new java.io.File(later).deleteOnExit();
+      expect(null, OpeningBook.open(later));
+      OpeningBook.write(later, entries);
+      expect(2, OpeningBook.open(later).size());
+    } catch (java.io.IOException e) {
+      print(e);
+    }
+    expect(null, OpeningBook.open("no such book"));
+    // the default book is looked for next to the classes, wherever the JVM was started
+    if (MachinePlayer.class.getResource("opening.book") != null) {
+      expect(true, OpeningBook.open(OpeningBook.DEFAULT_FILE) != null);
+    }
+
+    // Proof-number solver: a network in one move is proven and played without a search
+    SearchOptions solving = new SearchOptions(depth);
+    solving.book = null;
+    p = new MachinePlayer(Board.WHITE, solving);
+    int[][] whites = { {0, 2}, {2, 2}, {2, 5}, {4, 3}, {6, 3} };
+    int[][] blacks = { {1, 0}, {3, 0}, {5, 0}, {1, 7}, {3, 7} };
+    for (int i = 0; i < whites.length; i++) {
+      p.forceMove(new Move(whites[i][0], whites[i][1]));
+      p.opponentMove(new Move(blacks[i][0], blacks[i][1]));
+    }
+    ProofSolver solver = new ProofSolver(10, null);
+    p.board.setSideToMove(Board.WHITE);
+    expect(ProofSolver.PROVEN, solver.solve(p.board, 1, 1000));
+    Move proven = PackedMove.unpack(solver.provingMove());
+    Board proof = p.board.copy();
+    proof.performValidMove(proven, Board.WHITE);
+    expect(true, proof.hasNetwork(Board.WHITE));
+    p.board.setSideToMove(Board.BLACK);
+    expect(ProofSolver.DISPROVEN, solver.solve(p.board, 3, 100000));
+    // past its deadline, the solver gives up
+    expect(ProofSolver.UNKNOWN, new ProofSolver(10, null).solve(p.board, 3, 100000, 0));
+    m = p.chooseMove();
+    expect(true, m.toString().equals(proven.toString()));
+    expect(1, p.statistics().proofs);
+    expect(Board.MY_WIN, p.board.evaluate(Board.WHITE, false));
+
+    // Monte Carlo tree search finds the same network, without the solver
+    SearchOptions carlo = new SearchOptions(depth);
+    carlo.book = null;
+    carlo.solverPlies = 0;
+    carlo.playouts = 2000;
+    MachinePlayer mc = new MachinePlayer(Board.WHITE, carlo);
+    for (int i = 0; i < whites.length; i++) {
+      mc.forceMove(new Move(whites[i][0], whites[i][1]));
+      mc.opponentMove(new Move(blacks[i][0], blacks[i][1]));
+    }
+    m = mc.chooseMove();
+    expect(Board.MY_WIN, mc.board.evaluate(Board.WHITE, false));
+    expect(2000L, mc.statistics().playouts);
+
+    // With several threads growing the tree, moves must still be legal
+    carlo.threads = 4;
+    mc = new MachinePlayer(Board.WHITE, carlo);
+    o = new MachinePlayer(Board.BLACK, depth);
+    for (int i = 0; i < 12; i++) {
+      m = mc.chooseMove();
+      expect(true, o.opponentMove(m));
+      expect(true, mc.opponentMove(o.chooseMove()));
+    }
+    print("monte carlo: " + mc.statistics());
+
+    // A step that completes both players' networks loses, so it proves nothing
+    Board both = new Board();
+    whites = new int[][] { {0, 1}, {1, 1}, {3, 1}, {4, 1}, {6, 1}, {6, 2}, {0, 3}, {0, 4},
+                           {7, 4}, {2, 6} };
+    blacks = new int[][] { {1, 0}, {3, 0}, {2, 2}, {4, 2}, {2, 3}, {5, 3}, {1, 5}, {2, 5},
+                           {4, 5}, {4, 7} };
+    for (int i = 0; i < whites.length; i++) {
+      both.performValidMove(new Move(whites[i][0], whites[i][1]), Board.WHITE);
+      both.performValidMove(new Move(blacks[i][0], blacks[i][1]), Board.BLACK);
+    }
+    both.setSideToMove(Board.WHITE);
+    expect(ProofSolver.DISPROVEN, solver.solve(both, 1, 100000));
+    both.performValidMove(new Move(3, 4, 1, 1), Board.WHITE);
+    expect(true, both.hasNetwork(Board.WHITE) && both.hasNetwork(Board.BLACK));
+
+    // Pondering: the expected reply keeps the ponder going, any other move stops it
+    SearchOptions pondering = new SearchOptions(depth);
+    pondering.book = null;
+    pondering.ponder = true;
+    p = new MachinePlayer(Board.WHITE, pondering);
+    m = p.chooseMove();
+    expect(true, p.ponderThread != null);
+    expect(true, p.opponentMove(PackedMove.unpack(p.ponderMove)));
+    expect(true, p.ponderThread != null);
+    expect(1, p.statistics().ponderHits);
+    // once the ponder has searched as deep as chooseMove would, its move is played as it is
+    try {
+      p.ponderThread.join();
+    } catch (InterruptedException e) {
+      print(e);
+    }
+    Move pondered = PackedMove.unpack(p.ponderer.ponderedMove);
+    m = p.chooseMove();
+    expect(true, m.toString().equals(pondered.toString()));
+    expect(false, p.forceMove(m));
+    for (ListNode node : p.validMoves(Board.BLACK)) {
+      Move reply = (Move) node.item();
+      if (PackedMove.pack(reply) != p.ponderMove) {
+        expect(true, p.opponentMove(reply));
+        break;
+      }
+    }
+    expect(null, p.ponderThread);
+    expect(1, p.statistics().ponderMisses);
+    m = p.chooseMove();
+    expect(false, p.forceMove(m));
+
+    // Table ages: a deeper entry of an earlier search gives way to the current one's
+    TranspositionTable aging = new TranspositionTable(1);
+    aging.store(1, 0, 5, TranspositionTable.EXACT, PackedMove.NONE);
+    aging.store(3, 0, 1, TranspositionTable.EXACT, PackedMove.NONE);
+    expect(true, aging.probe(1) != TranspositionTable.MISS);
+    aging.nextAge();
+    aging.store(5, 0, 1, TranspositionTable.EXACT, PackedMove.NONE);
+    expect(TranspositionTable.MISS, aging.probe(1));
+    expect(true, aging.probe(5) != TranspositionTable.MISS);
+
+    // Reuse: the next search starts from the table the last one left
+    SearchOptions reusing = new SearchOptions(depth);
+    reusing.book = null;
+    reusing.reuse = true;
+    p = new MachinePlayer(Board.WHITE, reusing);
+    m = p.chooseMove();
+    long expected = p.table.probe(p.board.hashKey());
+    expect(true, p.opponentMove(PackedMove.unpack(TranspositionTable.move(expected))));
+    p.board.setSideToMove(Board.WHITE);
+    expect(true, p.table.probe(p.board.hashKey()) != TranspositionTable.MISS);
+    m = p.chooseMove();
+    expect(false, p.forceMove(m));
+
+    // Lazy SMP helpers share the table; the main thread's move must still be legal
+    parallel.lazySmp = true;
+    p = new MachinePlayer(Board.WHITE, parallel);
+    for (int i = 0; i < 4; i++) {
+      m = p.chooseMove();
+      expect(false, p.forceMove(m));
+      p.opponentMove((Move) p.validMoves(Board.BLACK).front().item());
+    }
+
+    // Move ordering statistics
+    print("ordering: " + p.statistics());
+
+    // Iterative deepening on a clock
+    SearchOptions timed = new SearchOptions();
+    timed.timeBudget = 100;
+    p = new MachinePlayer(Board.WHITE, timed);
+    long start = System.currentTimeMillis();
+    m = p.chooseMove();
+    expect(true, System.currentTimeMillis() - start < 2 * timed.timeBudget);
+    expect(false, p.forceMove(m));
+
+    // with aspiration windows
+    timed.pvs = true;
+    p = new MachinePlayer(Board.WHITE, timed);
+    m = p.chooseMove();
+    expect(false, p.forceMove(m));
+    m = p.chooseMove();
+    expect(false, p.forceMove(m));
   }
 
 }
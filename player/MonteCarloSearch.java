@@ -0,0 +1,339 @@
+package player;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+  /**
+    * Monte Carlo tree search (UCT) of a Board: grows a tree of the positions after the player
+    * to move's moves, guided by the results of random games (playouts) played from its leaves,
+    * and picks the root move visited most.
+    * The tree lives in a fixed pool of nodes kept in flat arrays, indexed by node number; a
+    * node's children are a block of consecutive nodes. The pool is allocated once, and every
+    * search recycles all of it, starting again from node 0, the root. When the pool runs out,
+    * leaves stay leaves and are simply played out.
+    * Positions have up to a few hundred moves, so a node's children are sorted by a static
+    * evaluation when it is expanded, and only the first few may be chosen, more as the node is
+    * visited more (progressive widening).
+    * Several threads may grow the same tree, each on its own copy of the board (tree
+    * parallelism). A thread passing through a node counts a lost visit there until its playout
+    * is done (a virtual loss), which steers the other threads to other lines.
+    * As the rules say, a move that completes networks for both players loses.
+    */
+public class MonteCarloSearch {
+  // UCT exploration constant: the square root of two, for results between 0 and 1.
+  private static final double EXPLORATION = 1.41;
+  // Visits counted against a node while a thread's playout through it is unfinished.
+  private static final int VIRTUAL_LOSS = 3;
+  // A playout that ends no game in this many moves is scored by Board.evaluate.
+  private static final int PLAYOUT_PLIES = 24;
+  // A search looks at the clock once every CLOCK_CHECK_PLAYOUTS playouts.
+  private static final int CLOCK_CHECK_PLAYOUTS = 16;
+  // Results, in half points for the player who moved into a node.
+  private static final int LOSS = 0;
+  private static final int DRAW = 1;
+  private static final int WIN = 2;
+  // Node states: a leaf, a leaf being expanded, expanded, or a leaf for good (no room left).
+  private static final int LEAF = 0;
+  private static final int EXPANDING = 1;
+  private static final int EXPANDED = 2;
+  private static final int FULL = 3;
+  // Node outcomes, for the player who moved into the node, found on its first visit.
+  private static final byte UNCHECKED = 0;
+  private static final byte OPEN = 1;
+  private static final byte WON = 2;
+  private static final byte LOST = 3;
+
+  private int capacity;
+  private int[] moves;         // packed move into each node
+  private int[] firstChild;    // node number of each node's first child
+  private int[] childCount;    // number of children of each node
+  private byte[] outcomes;
+  private AtomicIntegerArray states;
+  private AtomicIntegerArray visits;
+  private AtomicIntegerArray wins;    // half points won by the player who moved into each node
+  private AtomicInteger size;         // nodes used
+  private AtomicInteger started;      // playouts begun by the current search
+  private AtomicInteger finished;     // playouts done by the current search
+  private ExecutorService pool;
+  private int threads;
+  private volatile long deadline;
+  private volatile int limit;
+  private long seed;
+
+  /**
+    * Constructs a search with a pool of 2^sizeBits nodes that runs on "threads" threads,
+    * the calling one and threads - 1 tasks of "pool" (which may be null for one thread).
+    */
+  public MonteCarloSearch(int sizeBits, int threads, ExecutorService pool) {
+    capacity = 1 << sizeBits;
+    moves = new int[capacity];
+    firstChild = new int[capacity];
+    childCount = new int[capacity];
+    outcomes = new byte[capacity];
+    states = new AtomicIntegerArray(capacity);
+    visits = new AtomicIntegerArray(capacity);
+    wins = new AtomicIntegerArray(capacity);
+    size = new AtomicInteger();
+    started = new AtomicInteger();
+    finished = new AtomicInteger();
+    this.threads = pool == null ? 1 : Math.max(threads, 1);
+    this.pool = pool;
+  }
+
+  /**
+    * Searches "position" for the best move of the player to move, playing "playouts" random
+    * games, or as many as fit before System.nanoTime() passes "deadline", whichever comes
+    * first (at least one). Returns the root move visited most, with the share of points its
+    * playouts won for the player to move, in thousandths. "position" is not changed.
+    */
+  protected ScoredMove search(Board position, int playouts, long deadline) {
+    limit = playouts;
+    this.deadline = deadline;
+    size.set(1);
+    started.set(0);
+    finished.set(0);
+    clearNode(0, PackedMove.NONE);
+    outcomes[0] = OPEN;
+    Worker main = new Worker(position.copy(), seed++);
+    if (!main.expand(0)) {
+      return new ScoredMove(0, new Move());
+    }
+    Future<?>[] helpers = new Future<?>[threads - 1];
+    for (int i = 0; i < helpers.length; i++) {
+      helpers[i] = pool.submit(new Worker(position.copy(), seed++));
+    }
+    main.run();
+    for (int i = 0; i < helpers.length; i++) {
+      try {
+        helpers[i].get();
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    }
+    int best = firstChild[0];
+    for (int child = firstChild[0] + 1; child < firstChild[0] + childCount[0]; child++) {
+      if (visits.get(child) > visits.get(best)) {
+        best = child;
+      }
+    }
+    int score = visits.get(best) == 0 ? 0 : (int) (500L * wins.get(best) / visits.get(best));
+    return new ScoredMove(score, PackedMove.unpack(moves[best]));
+  }
+
+  /**
+    * Returns the number of playouts of the last search.
+    */
+  protected int playouts() {
+    return finished.get();
+  }
+
+  /**
+    * Resets node "node", reached by the packed move "move", to an unvisited leaf.
+    */
+  private void clearNode(int node, int move) {
+    moves[node] = move;
+    childCount[node] = 0;
+    outcomes[node] = UNCHECKED;
+    states.set(node, LEAF);
+    visits.set(node, 0);
+    wins.set(node, 0);
+  }
+
+  /**
+    * Returns how many of a node's children may be chosen after "visits" visits: one more for
+    * each square number of visits.
+    */
+  private static int widening(int visits) {
+    return 1 + (int) Math.sqrt(visits);
+  }
+
+  /**
+    * One thread's part of a search: playouts on its own copy of the board until the search
+    * has played enough or runs out of time.
+    */
+  private class Worker implements Runnable {
+    private Board board;
+    private Random random;
+    private int[] path = new int[Board.MAX_MOVES];     // nodes from the root to the leaf
+    private int[] playout = new int[PLAYOUT_PLIES];    // moves played out from the leaf
+    private int[] generated = new int[Board.MAX_MOVES];
+    private long[] sorted = new long[Board.MAX_MOVES];
+
+    Worker(Board board, long seed) {
+      this.board = board;
+      random = new Random(seed);
+    }
+
+    public void run() {
+      while (true) {
+        int count = started.getAndIncrement();
+        if (count >= limit
+            || (count > 0 && count % CLOCK_CHECK_PLAYOUTS == 0 && System.nanoTime() > deadline)) {
+          limit = 0; // stop the other threads too
+          return;
+        }
+        playOnce();
+        finished.incrementAndGet();
+      }
+    }
+
+    /**
+      * Walks down the tree from the root, choosing children by UCT and expanding the leaf it
+      * reaches once it has been visited, plays a random game from there, and records the
+      * result in every node passed.
+      */
+    private void playOnce() {
+      int node = 0;
+      int length = 0;
+      int side = board.sideToMove();
+      visits.addAndGet(0, VIRTUAL_LOSS);
+      path[length++] = node;
+      while (outcomes[node] == OPEN || outcomes[node] == UNCHECKED) {
+        int state = states.get(node);
+        if (state == LEAF && visits.get(node) > VIRTUAL_LOSS && length < path.length) {
+          expand(node);
+          state = states.get(node);
+        }
+        if (state != EXPANDED) {
+          break;
+        }
+        node = select(node);
+        board.performValidMove(moves[node], side);
+        visits.addAndGet(node, VIRTUAL_LOSS);
+        path[length++] = node;
+        if (outcomes[node] == UNCHECKED) {
+          outcomes[node] = outcome(side);
+        }
+        side = Board.flipColor(side);
+      }
+      // result for the player who moved into the leaf, the other player being "side"
+      int result;
+      if (outcomes[node] == WON) {
+        result = WIN;
+      } else if (outcomes[node] == LOST) {
+        result = LOSS;
+      } else {
+        result = WIN - playOut(side);
+      }
+      for (int i = length - 1; i >= 0; i--) {
+        int passed = path[i];
+        wins.addAndGet(passed, result);
+        visits.addAndGet(passed, 1 - VIRTUAL_LOSS);
+        if (i > 0) {
+          board.undoMove(moves[passed]);
+        }
+        result = WIN - result;
+      }
+    }
+
+    /**
+      * Returns the child of expanded node "node" with the best UCT value among those its
+      * visits allow, counting virtual losses; the first unvisited one, if any.
+      */
+    private int select(int node) {
+      int parentVisits = visits.get(node);
+      int first = firstChild[node];
+      int last = first + Math.min(childCount[node], widening(parentVisits));
+      double logVisits = Math.log(parentVisits);
+      int best = first;
+      double bestValue = -1;
+      for (int child = first; child < last; child++) {
+        int childVisits = visits.get(child);
+        if (childVisits == 0) {
+          return child;
+        }
+        double value = wins.get(child) / (2.0 * childVisits)
+            + EXPLORATION * Math.sqrt(logVisits / childVisits);
+        if (value > bestValue) {
+          bestValue = value;
+          best = child;
+        }
+      }
+      return best;
+    }
+
+    /**
+      * Expands leaf "node", whose position is on the board: gives it a child for every move of
+      * the player to move, best first by Board.evaluate. Returns false if another thread is
+      * expanding it, or the pool has no room for its children (the node then stays a leaf).
+      */
+    boolean expand(int node) {
+      if (!states.compareAndSet(node, LEAF, EXPANDING)) {
+        return false;
+      }
+      int side = board.sideToMove();
+      int count = board.generateMoves(side, generated);
+      int first = size.getAndAdd(count);
+      if (count == 0 || first + count > capacity) {
+        states.set(node, FULL);
+        return false;
+      }
+      for (int i = 0; i < count; i++) {
+        int move = generated[i];
+        board.performValidMove(move, side);
+        int score = board.evaluate(side, true);
+        if (score == Board.MY_WIN && board.hasNetwork(Board.flipColor(side))) {
+          score = Board.OPP_WIN;
+        }
+        board.undoMove(move);
+        // best first: sort on the negated score, keeping the move in the low bits
+        sorted[i] = ((long) -score << 32) | move;
+      }
+      java.util.Arrays.sort(sorted, 0, count);
+      for (int i = 0; i < count; i++) {
+        clearNode(first + i, (int) sorted[i]);
+      }
+      firstChild[node] = first;
+      childCount[node] = count;
+      states.set(node, EXPANDED);
+      return true;
+    }
+
+    /**
+      * Plays random moves from the current board, "side" to move, until a player completes a
+      * network or PLAYOUT_PLIES moves are made, then takes them back. Returns the result for
+      * "side": a network decides it, otherwise the sign of Board.evaluate.
+      */
+    private int playOut(int side) {
+      int result = -1;
+      int length = 0;
+      int mover = side;
+      while (length < PLAYOUT_PLIES) {
+        int count = board.generateMoves(mover, generated);
+        if (count == 0) {
+          break;
+        }
+        int move = generated[random.nextInt(count)];
+        board.performValidMove(move, mover);
+        playout[length++] = move;
+        byte outcome = outcome(mover);
+        if (outcome != OPEN) {
+          result = (outcome == WON) == (mover == side) ? WIN : LOSS;
+          break;
+        }
+        mover = Board.flipColor(mover);
+      }
+      if (result < 0) {
+        int score = board.evaluate(side, true);
+        result = score > 0 ? WIN : score < 0 ? LOSS : DRAW;
+      }
+      while (length > 0) {
+        board.undoMove(playout[--length]);
+      }
+      return result;
+    }
+
+    /**
+      * Returns the outcome of the move "mover" just made on the board, for "mover".
+      */
+    private byte outcome(int mover) {
+      if (board.hasNetwork(Board.flipColor(mover))) {
+        return LOST;
+      }
+      return board.hasNetwork(mover) ? WON : OPEN;
+    }
+  }
+}
@@ -0,0 +1,214 @@
+package player;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+  /**
+    * Read-only opening book: the best move and score of a fixed set of early positions, each
+    * keyed by Board.hashKey() with the player to move set, found by deep searches run ahead of
+    * time (see main).
+    * The book file is an array of RECORD_BYTES-byte records sorted by key: the key, the packed
+    * best move and the score for the player to move. It is memory-mapped read-only and
+    * binary-searched in place, so opening a book reads nothing from it, and every MachinePlayer
+    * in the JVM using the same file shares one mapping.
+    */
+public class OpeningBook {
+  // The name of the book built for MachinePlayer, kept with its classes.
+  private static final String BOOK_NAME = "opening.book";
+  // Where a MachinePlayer looks for its book, unless its SearchOptions say otherwise.
+  static final String DEFAULT_FILE = defaultFile();
+  // Returned by find when a position is not in the book.
+  protected static final int MISS = -1;
+
+  // Layout of a record: the key, then the move, then the score, big-endian.
+  private static final int RECORD_BYTES = 16;
+  private static final int MOVE_OFFSET = 8;
+  private static final int SCORE_OFFSET = 12;
+
+  // The books opened so far, by file name.
+  private static final Map<String, OpeningBook> BOOKS = new HashMap<String, OpeningBook>();
+
+  private MappedByteBuffer records;
+  private int size;
+
+  private OpeningBook(MappedByteBuffer records) {
+    this.records = records;
+    size = records.capacity() / RECORD_BYTES;
+  }
+
+  /**
+    * Returns the path of the book next to this class's file, so that it is found whatever
+    * directory the JVM was started in; if the classes are not in a directory holding a book
+    * (for instance, in a jar), "player/opening.book" from the working directory.
+    */
+  private static String defaultFile() {
+    URL url = OpeningBook.class.getResource(BOOK_NAME);
+    if (url != null && "file".equals(url.getProtocol())) {
+      try {
+        return new File(url.toURI()).getPath();
+      } catch (URISyntaxException e) {
+        // fall through to the working directory
+      }
+    }
+    return "player" + File.separator + BOOK_NAME;
+  }
+
+  /**
+    * Returns the book in file "fileName", or null if there is no such file or it is not a book.
+    * Each book is mapped once per JVM; later calls return the same book. A file that could not
+    * be opened is tried again on the next call.
+    */
+  protected static synchronized OpeningBook open(String fileName) {
+    OpeningBook book = BOOKS.get(fileName);
+    if (book != null) {
+      return book;
+    }
+    try (RandomAccessFile file = new RandomAccessFile(fileName, "r")) {
+      long length = file.length();
+      if (length % RECORD_BYTES == 0 && length <= Integer.MAX_VALUE) {
+        // the mapping stays valid once the file is closed
+        book = new OpeningBook(file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length));
+      }
+    } catch (IOException e) {
+      return null;
+    }
+    if (book != null) {
+      BOOKS.put(fileName, book);
+    }
+    return book;
+  }
+
+  /**
+    * Returns the number of positions in the book.
+    */
+  protected int size() {
+    return size;
+  }
+
+  /**
+    * Returns the index of the record of position "key", or MISS if it is not in the book.
+    * Reads the mapped file directly, so several threads can search it at once.
+    */
+  protected int find(long key) {
+    int low = 0;
+    int high = size - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      long middleKey = records.getLong(middle * RECORD_BYTES);
+      if (middleKey < key) {
+        low = middle + 1;
+      } else if (middleKey > key) {
+        high = middle - 1;
+      } else {
+        return middle;
+      }
+    }
+    return MISS;
+  }
+
+  /**
+    * Returns the packed best move of the record at "index", as returned by find.
+    */
+  protected int move(int index) {
+    return records.getInt(index * RECORD_BYTES + MOVE_OFFSET);
+  }
+
+  /**
+    * Returns the score, for the player to move, of the record at "index", as returned by find.
+    */
+  protected int score(int index) {
+    return records.getInt(index * RECORD_BYTES + SCORE_OFFSET);
+  }
+
+  /**
+    * Writes a book file "fileName" holding the records in "entries": for each key,
+    * the packed move and the score.
+    */
+  protected static void write(String fileName, TreeMap<Long, int[]> entries) throws IOException {
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(fileName)))) {
+      for (Map.Entry<Long, int[]> entry : entries.entrySet()) {
+        out.writeLong(entry.getKey());
+        out.writeInt(entry.getValue()[0]);
+        out.writeInt(entry.getValue()[1]);
+      }
+    }
+  }
+
+  /**
+    * Adds to "entries" every position a MachinePlayer of color "player" can face from the game
+    * "line" on, up to ply "plies", if it follows the book while its opponent may play anything.
+    * Each position is searched with "options" and recorded, and only its best move is followed.
+    */
+  private static void build(int player, int[] line, int ply, int plies, SearchOptions options,
+                            TreeMap<Long, int[]> entries) {
+    if (ply >= plies) {
+      return;
+    }
+    Board board = new Board();
+    int side = Board.WHITE;
+    for (int i = 0; i < ply; i++) {
+      board.performValidMove(line[i], side);
+      side = Board.flipColor(side);
+    }
+    board.setSideToMove(side);
+    if (side == player) {
+      long key = board.hashKey();
+      int[] entry = entries.get(key);
+      if (entry == null) {
+        MachinePlayer machine = new MachinePlayer(player, options);
+        for (int i = 0; i < ply; i++) {
+          Move move = PackedMove.unpack(line[i]);
+          if (i % 2 == (player == Board.WHITE ? 0 : 1)) {
+            machine.forceMove(move);
+          } else {
+            machine.opponentMove(move);
+          }
+        }
+        ScoredMove best = machine.analyze();
+        entry = new int[] { PackedMove.pack(best.move), best.score };
+        entries.put(key, entry);
+      }
+      line[ply] = entry[0];
+      build(player, line, ply + 1, plies, options, entries);
+    } else {
+      int[] moves = new int[Board.MAX_MOVES];
+      int count = board.generateMoves(side, moves);
+      for (int i = 0; i < count; i++) {
+        line[ply] = moves[i];
+        build(player, line, ply + 1, plies, options, entries);
+      }
+    }
+  }
+
+  /**
+    * Builds a book: java player.OpeningBook [file [depth [plies]]]
+    * Searches every position either player can face in the first "plies" moves of a game
+    * (default 4) to "depth" (default 6), following the book for the player to move and every
+    * move for the opponent, and writes them to "file" (default DEFAULT_FILE).
+    */
+  public static void main(String[] args) throws IOException {
+    String fileName = args.length > 0 ? args[0] : DEFAULT_FILE;
+    int depth = args.length > 1 ? Integer.parseInt(args[1]) : MachinePlayer.DEFAULT_DEPTH + 2;
+    int plies = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+    SearchOptions options = new SearchOptions(depth);
+    options.book = null;
+    TreeMap<Long, int[]> entries = new TreeMap<Long, int[]>();
+    for (int player = Board.BLACK; player <= Board.WHITE; player++) {
+      build(player, new int[plies], 0, plies, options, entries);
+    }
+    write(fileName, entries);
+    System.out.println(entries.size() + " positions written to " + fileName);
+  }
+}
@@ -0,0 +1,73 @@
+package player;
+
+  /**
+    * Converts between Move objects and Moves packed into a single int, so that moves can be kept
+    * in primitive arrays (transposition table entries, move stacks) without allocating.
+    * The packed form stores the kind in bits 12-13, the destination (x1, y1) square in bits 6-11
+    * and the source (x2, y2) square in bits 0-5. Squares are numbered as in Board.square.
+    */
+public class PackedMove {
+  // Packed value of "no move". A packed QUIT move is also 0.
+  protected static final int NONE = 0;
+
+  private static final int SQUARE_BITS = 6;
+  private static final int SQUARE_MASK = (1 << SQUARE_BITS) - 1;
+
+  /**
+    * Returns the packed int of a "kind" move to square "to" from square "from".
+    * "from" is ignored unless kind is Move.STEP.
+    */
+  protected static int pack(int kind, int to, int from) {
+    if (kind != Move.STEP) {
+      from = 0;
+    }
+    return (kind << (2 * SQUARE_BITS)) | (to << SQUARE_BITS) | from;
+  }
+
+  /**
+    * Returns the packed int of "move"
+    */
+  protected static int pack(Move move) {
+    if (move.moveKind == Move.QUIT) {
+      return NONE;
+    }
+    return pack(move.moveKind, Board.square(move.x1, move.y1), Board.square(move.x2, move.y2));
+  }
+
+  /**
+    * Returns a new Move object equal to the packed move "packed"
+    */
+  protected static Move unpack(int packed) {
+    int to = to(packed);
+    switch (kind(packed)) {
+    case Move.ADD:
+      return new Move(to % Board.LENGTH, to / Board.LENGTH);
+    case Move.STEP:
+      int from = from(packed);
+      return new Move(to % Board.LENGTH, to / Board.LENGTH, from % Board.LENGTH, from / Board.LENGTH);
+    default:
+      return new Move();
+    }
+  }
+
+  /**
+    * Returns Move.ADD, Move.STEP or Move.QUIT for the packed move "packed"
+    */
+  protected static int kind(int packed) {
+    return packed >>> (2 * SQUARE_BITS);
+  }
+
+  /**
+    * Returns the square the packed move "packed" puts a piece on
+    */
+  protected static int to(int packed) {
+    return (packed >>> SQUARE_BITS) & SQUARE_MASK;
+  }
+
+  /**
+    * Returns the square a packed STEP move "packed" takes its piece from
+    */
+  protected static int from(int packed) {
+    return packed & SQUARE_MASK;
+  }
+}
@@ -0,0 +1,273 @@
+package player;
+
+  /**
+    * Depth-first proof-number search (df-pn) of a Board: proves or disproves that the player
+    * to move (the attacker) can force a network within a number of plies, whatever the other
+    * player (the defender) does.
+    * Each position keeps two numbers for the player to move there (Nagai's phi and delta):
+    * phi is the proof number of "the player to move wins", delta its disproof number. The
+    * attacker wins by completing a network in time; the defender wins by holding out.
+    * As the rules say, a move that completes networks for both players loses.
+    * The numbers live in a fixed-size table, keyed by the position's hash key together with
+    * the plies left and the attacker, so that positions reached with different plies left are
+    * different nodes and the search never runs in a cycle, and entries stay right from one
+    * call to the next whatever the attacker and the number of plies. The table bounds the memory used: a position whose
+    * entry was replaced is just searched again. Like TranspositionTable, each entry is two
+    * longs, the data and the key XORed with it, in buckets of two: the first keeps solved
+    * positions, the second takes whatever the first rejects.
+    */
+public class ProofSolver {
+  // Results of solve.
+  protected static final int PROVEN = 1;
+  protected static final int DISPROVEN = -1;
+  protected static final int UNKNOWN = 0;
+
+  // A proof or disproof number this large means the node is solved; sums stop here.
+  private static final int INFINITE = 1 << 30;
+  // Outcomes of a move, for the player to move after it; OPEN needs searching.
+  private static final int OPEN = 0;
+  private static final int WON = 1;
+  private static final int LOST = 2;
+  // Mix the plies left and the attacker into a position's key.
+  private static final long PLY_KEY = 0x9E3779B97F4A7C15L;
+  private static final long ATTACKER_KEY = 0xC2B2AE3D27D4EB4FL;
+  // A search with a deadline looks at the clock once every CLOCK_CHECK_EXPANSIONS expansions.
+  private static final int CLOCK_CHECK_EXPANSIONS = 16;
+
+  private long[] checks; // key ^ data
+  private long[] data;   // phi in the high 32 bits, delta in the low 32 bits; 0 if empty
+  private int bucketMask;
+  private EvalCache evalCache;
+
+  private Board board;
+  private int attacker;
+  private long expansions;
+  private long budget;
+  private long deadline;
+  private boolean aborted;
+  // Per ply: the moves of the position being expanded, their keys and outcomes.
+  private int[][] moveStack;
+  private long[][] keyStack;
+  private int[][] outcomeStack;
+  private int provingMove;
+
+  /**
+    * Constructs a solver whose table has 2^sizeBits entries (at least one bucket of two),
+    * evaluating positions through "evalCache" if it is not null.
+    */
+  public ProofSolver(int sizeBits, EvalCache evalCache) {
+    int size = 1 << Math.max(sizeBits, 1);
+    checks = new long[size];
+    data = new long[size];
+    bucketMask = (size >> 1) - 1;
+    this.evalCache = evalCache;
+  }
+
+  /**
+    * Tries to prove that the player to move on "position" can complete a network within
+    * "plies" plies (counting both players' moves), expanding at most "budget" positions.
+    * Returns PROVEN, DISPROVEN, or UNKNOWN if the budget ran out first. "position" is not
+    * changed. Entries of earlier calls are kept, since nodes mean the same in every call.
+    */
+  protected int solve(Board position, int plies, long budget) {
+    return solve(position, plies, budget, Long.MAX_VALUE);
+  }
+
+  /**
+    * Like solve(position, plies, budget), but also gives up, returning UNKNOWN, once
+    * System.nanoTime() passes "deadline".
+    */
+  protected int solve(Board position, int plies, long budget, long deadline) {
+    board = position.copy();
+    board.setEvalCache(evalCache);
+    attacker = board.sideToMove();
+    this.budget = budget;
+    this.deadline = deadline;
+    expansions = 0;
+    aborted = false;
+    provingMove = PackedMove.NONE;
+    moveStack = new int[plies + 1][];
+    keyStack = new long[plies + 1][];
+    outcomeStack = new int[plies + 1][];
+    if (plies <= 0) {
+      return DISPROVEN;
+    }
+    long key = nodeKey(board.hashKey(), plies);
+    search(key, plies, 0, INFINITE, INFINITE);
+    if (provingMove != PackedMove.NONE) {
+      return PROVEN;
+    }
+    long entry = probe(key);
+    return entry != 0 && delta(entry) == 0 ? DISPROVEN : UNKNOWN;
+  }
+
+  /**
+    * Returns a winning move, packed as by PackedMove, after solve returned PROVEN.
+    * The search records it as it leaves the root, proven.
+    */
+  protected int provingMove() {
+    return provingMove;
+  }
+
+  /**
+    * Returns the number of positions expanded by the last call to solve.
+    */
+  protected long expansions() {
+    return expansions;
+  }
+
+  /**
+    * Searches the current board, the node "key" with "remaining" plies left at level "ply",
+    * until its phi reaches "phiLimit" or its delta reaches "deltaLimit" (the multiple iterative
+    * deepening of df-pn), and records its numbers in the table.
+    * The moves are made once to find their outcomes and keys; after that each round picks the
+    * move with the smallest delta (the one closest to a win for the player to move) and searches
+    * it with limits just tight enough to come back when another move becomes better.
+    */
+  private void search(long key, int remaining, int ply, int phiLimit, int deltaLimit) {
+    expansions++;
+    // the clock is read on the first expansion, then every CLOCK_CHECK_EXPANSIONS
+    if (expansions > budget || (expansions % CLOCK_CHECK_EXPANSIONS == 1
+                                && System.nanoTime() > deadline)) {
+      aborted = true;
+    }
+    int side = board.sideToMove();
+    int count = expand(remaining, ply, side);
+    int[] moves = moveStack[ply];
+    long[] keys = keyStack[ply];
+    int[] outcomes = outcomeStack[ply];
+    while (true) {
+      // phi is the smallest delta of a move, delta the sum of the moves' phis
+      int phi = INFINITE;
+      int delta = 0;
+      int best = -1;
+      int bestPhi = 0;
+      int secondDelta = INFINITE;
+      for (int i = 0; i < count; i++) {
+        int childPhi;
+        int childDelta;
+        if (outcomes[i] == WON) {
+          childPhi = 0;
+          childDelta = INFINITE;
+        } else if (outcomes[i] == LOST) {
+          childPhi = INFINITE;
+          childDelta = 0;
+        } else {
+          long entry = probe(keys[i]);
+          childPhi = entry == 0 ? 1 : phi(entry);
+          childDelta = entry == 0 ? 1 : delta(entry);
+        }
+        delta = (int) Math.min((long) delta + childPhi, INFINITE);
+        if (childDelta < phi) {
+          secondDelta = phi;
+          phi = childDelta;
+          best = i;
+          bestPhi = childPhi;
+        } else if (childDelta < secondDelta) {
+          secondDelta = childDelta;
+        }
+      }
+      if (phi >= phiLimit || delta >= deltaLimit || aborted) {
+        if (ply == 0 && phi == 0) {
+          provingMove = moves[best];
+        }
+        store(key, phi, delta);
+        return;
+      }
+      long childPhiLimit = Math.min((long) deltaLimit + bestPhi - delta, INFINITE);
+      int childDeltaLimit = Math.min(phiLimit, secondDelta + 1);
+      board.performValidMove(moves[best], side);
+      search(keys[best], remaining - 1, ply + 1, (int) childPhiLimit, childDeltaLimit);
+      board.undoMove(moves[best]);
+    }
+  }
+
+  /**
+    * Generates the moves of "side", to move on the current board with "remaining" plies left
+    * at level "ply", into moveStack, with the key and outcome of each into keyStack and
+    * outcomeStack. Returns the number of moves.
+    */
+  private int expand(int remaining, int ply, int side) {
+    if (moveStack[ply] == null) {
+      moveStack[ply] = new int[Board.MAX_MOVES];
+      keyStack[ply] = new long[Board.MAX_MOVES];
+      outcomeStack[ply] = new int[Board.MAX_MOVES];
+    }
+    int count = board.generateMoves(side, moveStack[ply]);
+    for (int i = 0; i < count; i++) {
+      int move = moveStack[ply][i];
+      board.performValidMove(move, side);
+      outcomeStack[ply][i] = outcome(side, remaining - 1);
+      keyStack[ply][i] = nodeKey(board.hashKey(), remaining - 1);
+      board.undoMove(move);
+    }
+    return count;
+  }
+
+  /**
+    * Returns the outcome of the move just made by "mover", for the player now to move with
+    * "remaining" plies left: LOST if the mover completed a network (and only the mover),
+    * WON if the other player has one, OPEN otherwise, unless no plies are left, in which
+    * case the attacker has failed.
+    */
+  private int outcome(int mover, int remaining) {
+    int score = board.evaluate(Board.flipColor(mover), false);
+    if (score == Board.MY_WIN) {
+      return WON;
+    } else if (score == Board.OPP_WIN) {
+      return LOST;
+    } else if (remaining == 0) {
+      return mover == attacker ? WON : LOST;
+    }
+    return OPEN;
+  }
+
+  /**
+    * Returns the table key of position "hashKey" with "remaining" plies left, for the
+    * current attacker.
+    */
+  private long nodeKey(long hashKey, int remaining) {
+    long key = hashKey ^ (remaining * PLY_KEY);
+    return attacker == Board.WHITE ? key ^ ATTACKER_KEY : key;
+  }
+
+  /**
+    * Returns the data of the entry for node "key", or 0 if it is not in the table.
+    */
+  private long probe(long key) {
+    int slot = (int) (key ^ (key >>> 32)) & bucketMask;
+    slot <<= 1;
+    for (int i = slot; i < slot + 2; i++) {
+      long entry = data[i];
+      if (entry != 0 && (checks[i] ^ entry) == key) {
+        return entry;
+      }
+    }
+    return 0;
+  }
+
+  /**
+    * Records the numbers "phi" and "delta" of node "key".
+    */
+  private void store(long key, int phi, int delta) {
+    int slot = (int) (key ^ (key >>> 32)) & bucketMask;
+    slot <<= 1;
+    long first = data[slot];
+    boolean solved = phi == 0 || delta == 0;
+    if ((checks[slot] ^ first) != key && first != 0 && !solved
+        && (phi(first) == 0 || delta(first) == 0)) {
+      slot++; // keep the solved entry, replace the other one
+    }
+    long entry = ((long) phi << 32) | delta;
+    checks[slot] = key ^ entry;
+    data[slot] = entry;
+  }
+
+  private static int phi(long entry) {
+    return (int) (entry >>> 32);
+  }
+
+  private static int delta(long entry) {
+    return (int) entry;
+  }
+}
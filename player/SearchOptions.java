@@ -0,0 +1,90 @@
+/* SearchOptions.java */
+
+package player;
+
+/**
+ *  A public class for holding the settings of a MachinePlayer's game tree
+ *  search.  Like Move, this class is a container for data, not an ADT; hence,
+ *  all fields are public.  The defaults match the one-parameter
+ *  MachinePlayer constructor.
+ */
+public class SearchOptions {
+
+  public int searchDepth;  // The number of levels searched (see MachinePlayer.chooseMove).
+  public int stepDepthDrop;  // Once the player's pieces are all on the board, a fixed
+                             //   depth search goes this many levels less deep.
+  public int tableBits;    // The transposition table holds 2^tableBits entries;
+                           //   0 searches without a transposition table.
+  public int evalCacheBits;  // The evaluation cache holds 2^evalCacheBits entries;
+                             //   0 evaluates without a cache.
+  public long timeBudget;  // If positive, chooseMove deepens its search one level
+                           //   at a time for at most timeBudget milliseconds,
+                           //   and searchDepth is ignored.
+  public int threads;      // If more than 1, the search splits work between this
+                           //   many threads (Young Brothers Wait).
+  public boolean lazySmp;  // If true, the threads instead all search the whole
+                           //   tree, sharing only the transposition table
+                           //   (Lazy SMP).
+  public int extensions;    // A line where either player can complete a network
+                           //   with one move is searched one level past the
+                           //   search depth, at most this many times per line;
+                           //   0 never extends.
+  public boolean reductions;  // If true, in the step phase moves ordered late are
+                              //   first searched one or two levels less deep
+                              //   (late move reductions).
+  public boolean nullMove;    // If true, in the step phase a player may pass to show
+                              //   that its position is good enough for a cutoff
+                              //   (null move pruning).
+  public boolean futility;  // If true, one and two levels above the leaves, moves
+                            //   that cannot bring the score back inside the
+                            //   window are skipped (futility pruning).
+  public boolean probCut;   // If true, three or more levels above the leaves, a
+                            //   search two levels shallower that lands well past
+                            //   the window cuts the position off (ProbCut).
+  public String book;      // The opening book file (see OpeningBook) whose moves
+                           //   are played without searching; null, or a missing
+                           //   file, searches every move.
+  public int solverPlies;  // Before searching, chooseMove looks for a network the
+                           //   player can force within this many plies with the
+                           //   proof-number solver (see ProofSolver); 0 never does.
+  public long solverBudget;  // The solver gives up after expanding this many
+                             //   positions, and the search chooses the move.
+  public boolean ponder;   // If true, after each move the player searches the
+                           //   position after the reply it expects on another
+                           //   thread until the opponent moves, and the next
+                           //   search starts from what it found (pondering).
+                           //   Needs a transposition table.
+  public boolean reuse;    // If true, each search starts from the transposition
+                           //   table, killer moves and history the last one left,
+                           //   instead of empty ones; older entries give way to
+                           //   newer ones.
+  public int playouts;     // If positive, chooseMove searches with Monte Carlo tree
+                           //   search (see MonteCarloSearch) instead of alpha-beta,
+                           //   playing this many random games per move, or as
+                           //   many as the time budget allows if one is set; the
+                           //   threads grow one tree together.
+  public boolean pvs;      // If true, moves after the first are tested with a null
+                           //   window first (Principal Variation Search), and
+                           //   timed searches start each iteration with a window
+                           //   around the last one's score (aspiration windows).
+
+  // Construct the default settings.
+  public SearchOptions() {
+    this(MachinePlayer.DEFAULT_DEPTH);
+  }
+
+  // Construct the default settings with the given search depth.
+  public SearchOptions(int searchDepth) {
+    this.searchDepth = searchDepth;
+    stepDepthDrop = MachinePlayer.STEP_DEPTH_DROP;
+    tableBits = 17;
+    evalCacheBits = 16;
+    extensions = 0;
+    threads = 1;
+    book = OpeningBook.DEFAULT_FILE;
+    solverPlies = 3;
+    solverBudget = 20000;
+    reuse = true;
+  }
+
+}
@@ -0,0 +1,90 @@
+/* SearchStats.java */
+
+package player;
+
+/**
+ *  A public class for holding counters collected by a MachinePlayer's search,
+ *  so that the effect of search settings can be measured.  Like Move, this
+ *  class is a container for data, not an ADT; hence, all fields are public.
+ *  Counters accumulate from the player's construction.
+ */
+public class SearchStats {
+
+  public long nodes;             // positions visited
+  public long cutoffs;           // positions whose search was cut off by alpha-beta
+  public long firstMoveCutoffs;  // cutoffs caused by the first move searched
+  public long extensions;        // positions searched past the search depth because of a threat
+  public long nullMoveCutoffs;   // cutoffs found by passing (null move pruning)
+  public long probCuts;          // cutoffs predicted by a shallower search (ProbCut)
+  public long futilityPruned;    // moves skipped as unable to reach the window (futility pruning)
+  public long proofs;            // moves chosen by the proof-number solver
+  public long proofExpansions;   // positions expanded by the proof-number solver
+  public long ponderHits;        // opponent moves that were the reply being pondered
+  public long ponderMisses;      // opponent moves that were not, stopping the ponder
+  public long playouts;          // random games played by Monte Carlo tree search
+  public long playoutNanos;      // time spent in Monte Carlo tree search
+  public long researches;        // PVS scouts and aspiration windows that had to be searched again
+  public long networkChecks;     // calls to Board.hasNetwork
+  public long networksFiltered;  // of which the goal reachability check answered alone
+  public long evalHits;          // evaluations found in the evaluation cache
+  public long evalMisses;        // evaluations computed with a cache that lacked them
+
+  // Adds the counters of "other" to these.
+  public void add(SearchStats other) {
+    nodes += other.nodes;
+    cutoffs += other.cutoffs;
+    firstMoveCutoffs += other.firstMoveCutoffs;
+    researches += other.researches;
+    nullMoveCutoffs += other.nullMoveCutoffs;
+    probCuts += other.probCuts;
+    futilityPruned += other.futilityPruned;
+    proofs += other.proofs;
+    proofExpansions += other.proofExpansions;
+    ponderHits += other.ponderHits;
+    ponderMisses += other.ponderMisses;
+    playouts += other.playouts;
+    playoutNanos += other.playoutNanos;
+    extensions += other.extensions;
+    networkChecks += other.networkChecks;
+    networksFiltered += other.networksFiltered;
+    evalHits += other.evalHits;
+    evalMisses += other.evalMisses;
+  }
+
+  // Returns the fraction of cutoffs that the first move searched caused.  The
+  // closer to 1, the better the move ordering.
+  public double firstMoveCutoffRate() {
+    return cutoffs == 0 ? 0 : (double) firstMoveCutoffs / cutoffs;
+  }
+
+  // Returns the fraction of network checks that needed no network search,
+  // because no group of a player's pieces reached both of its goals.
+  public double networkFilterRate() {
+    return networkChecks == 0 ? 0 : (double) networksFiltered / networkChecks;
+  }
+
+  // Returns the number of playouts Monte Carlo tree search played per second.
+  public double playoutRate() {
+    return playoutNanos == 0 ? 0 : playouts * 1e9 / playoutNanos;
+  }
+
+  // Returns the fraction of evaluation cache lookups that found the position.
+  public double evalHitRate() {
+    return evalHits + evalMisses == 0 ? 0 : (double) evalHits / (evalHits + evalMisses);
+  }
+
+  // toString() reports the counters.
+  public String toString() {
+    return "nodes " + nodes + ", cutoffs " + cutoffs + ", on first move "
+        + String.format("%.1f%%", 100 * firstMoveCutoffRate()) + ", re-searches " + researches
+        + ", extensions " + extensions + ", null move cutoffs " + nullMoveCutoffs
+        + ", probcuts " + probCuts + ", futility pruned " + futilityPruned
+        + ", proofs " + proofs + " (" + proofExpansions + " expansions)"
+        + ", ponder hits " + ponderHits + ", misses " + ponderMisses
+        + ", playouts " + playouts + String.format(" (%.0f/s)", playoutRate())
+        + ", network checks "
+        + networkChecks + ", filtered " + String.format("%.1f%%", 100 * networkFilterRate())
+        + ", eval cache hits " + String.format("%.1f%%", 100 * evalHitRate());
+  }
+
+}
@@ -0,0 +1,125 @@
+package player;
+
+  /**
+    * Fixed-size transposition table for the game tree search, keyed by Board.hashKey().
+    * Each entry is two longs in flat primitive arrays: the entry's data (score, depth, bound type
+    * and packed best move) and its key XORed with that data.
+    * The table can be shared by several searching threads without locks: a write torn between
+    * two threads leaves a key and data that no longer match, and probe treats it as a miss.
+    * The table is split into buckets of two entries: the first keeps whichever position the
+    * current search searched deepest, the second is always replaced by anything the first one
+    * rejects. Entries left by earlier searches stay usable, but give way to the current one's.
+    */
+public class TranspositionTable {
+  // Bound types: how the stored score relates to the position's true score.
+  protected static final int EXACT = 0;
+  protected static final int LOWER_BOUND = 1;  // true score >= stored score
+  protected static final int UPPER_BOUND = 2;  // true score <= stored score
+
+  // Returned by probe when a position is not in the table.
+  protected static final long MISS = 0;
+
+  // Layout of an entry's data, from the low bits: a used flag, the bound type, the age,
+  // the depth, the packed best move and the score in the high 32 bits.
+  private static final long USED = 1;
+  private static final int BOUND_SHIFT = 1;
+  private static final int AGE_SHIFT = 3;
+  private static final int AGE_MASK = 0x1F;
+  private static final int DEPTH_SHIFT = 8;
+  private static final int MOVE_SHIFT = 16;
+  private static final int SCORE_SHIFT = 32;
+
+  private long[] checks; // key ^ data
+  private long[] data;
+  private int bucketMask;
+  private int age; // of the current search, recorded in every entry it stores
+
+  /**
+    * Constructs an empty table of 2^sizeBits entries (at least one bucket of two).
+    */
+  public TranspositionTable(int sizeBits) {
+    int size = 1 << Math.max(sizeBits, 1);
+    checks = new long[size];
+    data = new long[size];
+    bucketMask = (size >> 1) - 1;
+  }
+
+  /**
+    * Removes every entry from the table.
+    * Must not be called while another thread is using the table.
+    */
+  protected void clear() {
+    java.util.Arrays.fill(checks, 0);
+    java.util.Arrays.fill(data, 0);
+  }
+
+  /**
+    * Starts a new search: the entries already in the table become older than any it stores.
+    * Must not be called while another thread is using the table.
+    */
+  protected void nextAge() {
+    age = (age + 1) & AGE_MASK;
+  }
+
+  /**
+    * Returns the data of the entry for position "key", or MISS if it is not in the table.
+    * Read the fields of the entry with score, depth, bound and move.
+    */
+  protected long probe(long key) {
+    int slot = bucket(key);
+    for (int i = slot; i < slot + 2; i++) {
+      long entry = data[i];
+      if (entry != MISS && (checks[i] ^ entry) == key) {
+        return entry;
+      }
+    }
+    return MISS;
+  }
+
+  /**
+    * Records a search result for position "key": its score, the remaining depth it was searched to,
+    * the bound type of the score, and the packed best move (or PackedMove.NONE).
+    */
+  protected void store(long key, int score, int depth, int bound, int move) {
+    int slot = bucket(key);
+    long first = data[slot];
+    if ((checks[slot] ^ first) != key && first != MISS && depth(first) > depth
+        && age(first) == age) {
+      slot++; // keep the deeper entry of this search, replace the other one
+    }
+    long entry = ((long) score << SCORE_SHIFT) | ((long) move << MOVE_SHIFT)
+        | ((long) depth << DEPTH_SHIFT) | ((long) age << AGE_SHIFT)
+        | ((long) bound << BOUND_SHIFT) | USED;
+    checks[slot] = key ^ entry;
+    data[slot] = entry;
+  }
+
+  // Accessors for the fields of "entry", as returned by probe.
+
+  protected static int score(long entry) {
+    return (int) (entry >> SCORE_SHIFT);
+  }
+
+  protected static int depth(long entry) {
+    return (int) (entry >>> DEPTH_SHIFT) & 0xFF;
+  }
+
+  protected static int bound(long entry) {
+    return (int) (entry >>> BOUND_SHIFT) & 0x3;
+  }
+
+  protected static int move(long entry) {
+    return (int) (entry >>> MOVE_SHIFT) & 0xFFFF;
+  }
+
+  private static int age(long entry) {
+    return (int) (entry >>> AGE_SHIFT) & AGE_MASK;
+  }
+
+  /**
+    * Returns the index of the first entry of the bucket for position "key"
+    */
+  private int bucket(long key) {
+    return ((int) (key ^ (key >>> 32)) & bucketMask) << 1;
+  }
+}